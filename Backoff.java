@@ -0,0 +1,23 @@
+/* ---------------- RETRY BACKOFF ---------------- */
+// When to try again after a failure: a second after the first, doubling per
+// further failure up to five minutes. Owners call it under their own lock.
+final class Backoff {
+    private static final long FIRST_NANOS = 1_000_000_000L;
+    private static final long MAX_NANOS = 300_000_000_000L;
+
+    private long delay; // 0 while nothing is failing
+    private long retryAt;
+
+    boolean ready() {
+        return delay == 0 || System.nanoTime() - retryAt >= 0;
+    }
+
+    void failed() {
+        delay = delay == 0 ? FIRST_NANOS : Math.min(delay * 2, MAX_NANOS);
+        retryAt = System.nanoTime() + delay;
+    }
+
+    void succeeded() {
+        delay = 0;
+    }
+}
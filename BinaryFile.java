@@ -0,0 +1,218 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/* ---------------- BINARY FILE FORMAT ---------------- */
+// Buffered FileChannel I/O for the .bin stores. Every file starts with a
+// 4-byte magic identifying its kind and a 2-byte format version. Strings are
+// an unsigned 16-bit byte length followed by UTF-8; dates are stored by the
+// callers as epoch-day ints.
+//
+// Stores are rewritten crash-safely: write a sibling .tmp file (fsynced when
+// the Writer closes), then replace() renames it over the live file, so a
+// crash leaves either the old snapshot or the new one, never a torn mix.
+class BinaryFile {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The temporary file a new snapshot of target is written to. */
+    static File tempFor(File target) {
+        return new File(target.getPath() + ".tmp");
+    }
+
+    /** Atomically renames a fully written tmp over target and makes the rename durable. */
+    static void replace(File tmp, File target) throws IOException {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /*
+     * For a store that exists but cannot be read. Starting empty instead would
+     * silently drop its data at the next save (and, for users.bin, recreate the
+     * default admin account), so startup stops here.
+     */
+    static IllegalStateException unreadable(File file, Exception cause) {
+        return new IllegalStateException("Cannot read " + file.getPath() + " (" + cause
+                + "). Restore it from a backup, or move it aside to start without its data.", cause);
+    }
+
+    /*
+     * For a store that could not be written where the caller cannot carry on
+     * without it (a migration, a checkpoint on exit). The previous file and
+     * its journal are untouched.
+     */
+    static UncheckedIOException unwritable(File file, IOException cause) {
+        return new UncheckedIOException("Cannot write " + file.getPath() + " (" + cause + ").", cause);
+    }
+
+    // Best effort: not every platform can open a directory to fsync it.
+    private static void syncDirectory(File dir) {
+        if (dir == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // the rename is still atomic, just not yet guaranteed on disk
+        }
+    }
+
+    static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long bytesWritten;
+
+        Writer(File file, int magic, short version) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            putInt(magic);
+            putShort(version);
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                bytesWritten += channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        void putByte(byte v) throws IOException {
+            ensure(1);
+            buf.put(v);
+        }
+
+        void putShort(short v) throws IOException {
+            ensure(2);
+            buf.putShort(v);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buf.putLong(v);
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long to store (" + bytes.length + " bytes)");
+            }
+            putShort((short) bytes.length);
+            int off = 0;
+            while (off < bytes.length) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        long getBytesWritten() {
+            return bytesWritten + buf.position();
+        }
+
+        // Durable once this returns: the data is fsynced before the file is closed.
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private byte[] scratch = new byte[256];
+
+        Reader(File file, int magic, short maxVersion) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buf.flip();
+            if (getInt() != magic) {
+                channel.close();
+                throw new IOException(file.getName() + " is not a recognised data file");
+            }
+            short version = getShort();
+            if (version > maxVersion) {
+                channel.close();
+                throw new IOException(file.getName() + " was written by a newer version (" + version + ")");
+            }
+        }
+
+        private void require(int n) throws IOException {
+            if (buf.remaining() >= n) {
+                return;
+            }
+            buf.compact();
+            while (buf.position() < n) {
+                if (channel.read(buf) < 0) {
+                    throw new EOFException("Unexpected end of data file");
+                }
+            }
+            buf.flip();
+        }
+
+        byte getByte() throws IOException {
+            require(1);
+            return buf.get();
+        }
+
+        short getShort() throws IOException {
+            require(2);
+            return buf.getShort();
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            return buf.getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getShort() & 0xFFFF;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            int off = 0;
+            while (off < length) {
+                require(1);
+                int n = Math.min(buf.remaining(), length - off);
+                buf.get(scratch, off, n);
+                off += n;
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.*;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/* ---------------- BOOK CLASS ---------------- */
+// Every physical copy has a number from 1 to totalCopies and a barcode
+// (bookId * 10000 + copy). Which copies are on the shelf is a bitset and
+// each loan sits in its copy's slot, so issuing, and returning by barcode,
+// never scan the loans. A copy reserved for a hold is neither on the shelf
+// nor lent.
+class Book implements Serializable {
+    // Pinned to the value of the original class so legacy .dat files still load.
+    private static final long serialVersionUID = -3851698907612003715L;
+    static final long FINE_PER_DAY = 500; // ₹5 per day, in paise
+    static final int MAX_COPIES = 9_999;
+    private static final long BARCODE_RADIX = MAX_COPIES + 1;
+
+    // The serialized form stays that of the original class: loans as a list.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", int.class),
+            new ObjectStreamField("title", String.class),
+            new ObjectStreamField("author", String.class),
+            new ObjectStreamField("totalCopies", int.class),
+            new ObjectStreamField("availableCopies", int.class),
+            new ObjectStreamField("borrowRecords", ArrayList.class)
+    };
+
+    private int id;
+    private String title;
+    private String author;
+    private int totalCopies;
+    private int availableCopies;
+    private BitSet onShelf;        // bit copy-1 is set while that copy is available
+    private BorrowRecord[] loans;  // loans[copy-1] is that copy's loan, or null
+    private LoanTable table;       // holds the loans' values once the book is in a library
+    private int slot;              // its index in that library's list of books, or -1
+
+    public Book(int id, String title, String author, int copies) {
+        if (!validCopies(copies)) {
+            throw new IllegalArgumentException("Copies must be between 0 and " + MAX_COPIES + ".");
+        }
+        init(id, title, author, copies);
+    }
+
+    // Restores a stored book with its outstanding loans. Counts from before
+    // the copy limit are clamped rather than rejected.
+    Book(int id, String title, String author, int copies, List<BorrowRecord> records) {
+        init(id, title, author, Math.max(0, Math.min(copies, MAX_COPIES)));
+        placeAll(records);
+    }
+
+    // Barcodes are id * BARCODE_RADIX + copy, which only decodes for id > 0.
+    static boolean validId(int id) {
+        return id > 0;
+    }
+
+    static boolean validCopies(int copies) {
+        return copies >= 0 && copies <= MAX_COPIES;
+    }
+
+    private void init(int id, String title, String author, int copies) {
+        if (!validId(id)) {
+            throw new IllegalArgumentException("Book ID must be a positive number.");
+        }
+        this.id = id;
+        this.title = title;
+        this.author = author;
+        this.totalCopies = copies;
+        this.availableCopies = copies;
+        this.onShelf = new BitSet(copies);
+        this.onShelf.set(0, copies);
+        this.loans = new BorrowRecord[copies];
+        this.slot = -1;
+    }
+
+    /*
+     * Records that know their copy go back to it; older data without copy
+     * numbers fills the free copies in order. Older data could also hold more
+     * loans than copies, so the count grows to cover every copy that is out.
+     */
+    private void placeAll(List<BorrowRecord> records) {
+        List<BorrowRecord> unplaced = new ArrayList<>();
+        for (BorrowRecord r : records) {
+            if (r.getCopy() < 1 || !issueBook(r)) {
+                r.setCopy(0);
+                unplaced.add(r);
+            }
+        }
+        for (BorrowRecord r : unplaced) {
+            if (availableCopies == 0 && totalCopies < MAX_COPIES) {
+                resize(totalCopies + 1);
+            }
+            issueBook(r);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getAvailableCopies() {
+        return availableCopies;
+    }
+
+    public int getTotalCopies() {
+        return totalCopies;
+    }
+
+    static long barcodeOf(int bookId, int copy) {
+        return bookId * BARCODE_RADIX + copy;
+    }
+
+    static int bookIdOf(long barcode) {
+        return (int) (barcode / BARCODE_RADIX);
+    }
+
+    static int copyOf(long barcode) {
+        return (int) (barcode % BARCODE_RADIX);
+    }
+
+    public long barcode(int copy) {
+        return barcodeOf(id, copy);
+    }
+
+    public boolean hasCopy(int copy) {
+        return copy >= 1 && copy <= totalCopies;
+    }
+
+    public boolean isOnShelf(int copy) {
+        return hasCopy(copy) && onShelf.get(copy - 1);
+    }
+
+    /** The loan of this copy, or null when it is on the shelf or does not exist. */
+    public BorrowRecord loanOf(int copy) {
+        return hasCopy(copy) ? loans[copy - 1] : null;
+    }
+
+    public boolean issueBook(String borrowerId) {
+        return issueBook(new BorrowRecord(borrowerId));
+    }
+
+    /**
+     * Lends record's copy, or the lowest-numbered available copy when the
+     * record has none yet (and sets it). False if that copy is out or there
+     * is none left.
+     */
+    public boolean issueBook(BorrowRecord record) {
+        int copy = record.getCopy();
+        if (copy == 0) {
+            copy = firstOnShelf();
+            if (copy == 0) {
+                return false;
+            }
+        } else if (!isOnShelf(copy)) {
+            return false;
+        }
+        onShelf.clear(copy - 1);
+        loans[copy - 1] = record;
+        record.setCopy(copy);
+        if (table != null) {
+            table.attach(record);
+        }
+        availableCopies--;
+        return true;
+    }
+
+    /** Takes back a copy by number without computing a fine; null if it is not on loan. */
+    public BorrowRecord returnCopy(int copy) {
+        BorrowRecord record = loanOf(copy);
+        if (record != null) {
+            loans[copy - 1] = null;
+            onShelf.set(copy - 1);
+            availableCopies++;
+            if (table != null) {
+                table.release(record);
+            }
+        }
+        return record;
+    }
+
+    /** Moves the loans' values into the library's table; later loans go there too. */
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    void keepLoansIn(LoanTable table) {
+        if (this.table == table) {
+            return;
+        }
+        releaseLoans();
+        this.table = table;
+        for (BorrowRecord r : loans) {
+            if (r != null) {
+                table.attach(r);
+            }
+        }
+    }
+
+    /** Gives the loans their values back and frees their slots, e.g. when the book leaves the library. */
+    void releaseLoans() {
+        if (table != null) {
+            for (BorrowRecord r : loans) {
+                if (r != null) {
+                    table.release(r);
+                }
+            }
+            table = null;
+        }
+    }
+
+    /** Takes an available copy off the shelf without lending it, e.g. for a hold. */
+    boolean reserve(int copy) {
+        if (!isOnShelf(copy)) {
+            return false;
+        }
+        onShelf.clear(copy - 1);
+        availableCopies--;
+        return true;
+    }
+
+    /** Puts a reserved copy back on the shelf. */
+    void unreserve(int copy) {
+        if (hasCopy(copy) && !onShelf.get(copy - 1) && loans[copy - 1] == null) {
+            onShelf.set(copy - 1);
+            availableCopies++;
+        }
+    }
+
+    /** The lowest-numbered copy on the shelf, or 0. */
+    int firstOnShelf() {
+        return onShelf.nextSetBit(0) + 1;
+    }
+
+    // Removes the oldest loan held by borrowerId without computing a fine.
+    public BorrowRecord removeLoan(String borrowerId) {
+        BorrowRecord oldest = null;
+        for (BorrowRecord r : loans) {
+            if (r != null && r.getBorrowerId().equals(borrowerId)
+                    && (oldest == null || r.getIssueDate().isBefore(oldest.getIssueDate()))) {
+                oldest = r;
+            }
+        }
+        return oldest == null ? null : returnCopy(oldest.getCopy());
+    }
+
+    // Undoes an issue: removes exactly this record.
+    boolean removeLoan(BorrowRecord record) {
+        if (loanOf(record.getCopy()) != record) {
+            return false;
+        }
+        returnCopy(record.getCopy());
+        return true;
+    }
+
+    /** Fine in paise for returning record on the given day. */
+    static long fineFor(BorrowRecord record, LocalDate returned) {
+        if (!returned.isAfter(record.getDueDate())) {
+            return 0;
+        }
+        return ChronoUnit.DAYS.between(record.getDueDate(), returned) * FINE_PER_DAY;
+    }
+
+    /**
+     * Copies are added or withdrawn from the highest number down, so barcodes
+     * already on the shelf stay valid. False, changing nothing, if a copy
+     * that would be withdrawn is on loan.
+     */
+    public boolean updateBook(String title, String author, int copies) {
+        if (copies < totalCopies && onShelf.nextClearBit(copies) < totalCopies) {
+            return false;
+        }
+        this.title = title;
+        this.author = author;
+        resize(copies);
+        return true;
+    }
+
+    private void resize(int copies) {
+        if (copies > totalCopies) {
+            onShelf.set(totalCopies, copies);
+        } else {
+            onShelf.clear(copies, totalCopies);
+        }
+        availableCopies += copies - totalCopies;
+        loans = Arrays.copyOf(loans, copies);
+        totalCopies = copies;
+    }
+
+    /** Outstanding loans in copy order. */
+    public List<BorrowRecord> getBorrowRecords() {
+        if (availableCopies == totalCopies) {
+            return Collections.emptyList();
+        }
+        List<BorrowRecord> result = new ArrayList<>(totalCopies - availableCopies);
+        for (BorrowRecord r : loans) {
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public List<BorrowRecord> getBorrowRecordsForBorrower(String borrowerId) {
+        List<BorrowRecord> result = new ArrayList<>();
+        for (BorrowRecord br : loans) {
+            if (br != null && br.getBorrowerId().equals(borrowerId)) {
+                result.add(br);
+            }
+        }
+        return result;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("title", title);
+        fields.put("author", author);
+        fields.put("totalCopies", totalCopies);
+        fields.put("availableCopies", availableCopies);
+        fields.put("borrowRecords", new ArrayList<>(getBorrowRecords()));
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        int copies = fields.get("totalCopies", 0);
+        init(fields.get("id", 0), (String) fields.get("title", null), (String) fields.get("author", null),
+                Math.max(0, Math.min(copies, MAX_COPIES)));
+        List<?> stored = (List<?>) fields.get("borrowRecords", null);
+        if (stored != null) {
+            List<BorrowRecord> records = new ArrayList<>(stored.size());
+            for (Object r : stored) {
+                records.add((BorrowRecord) r);
+            }
+            placeAll(records);
+        }
+    }
+}
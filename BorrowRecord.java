@@ -0,0 +1,109 @@
+import java.io.*;
+import java.time.*;
+
+/* ---------------- BORROW RECORD ---------------- */
+// While its book is in a library, a lent record is a view of a LoanTable
+// slot and its own fields are null; they hold the values before the loan is
+// placed and again after it ends.
+class BorrowRecord implements Serializable {
+    // Pinned to the value of the original class so legacy .dat files still load.
+    private static final long serialVersionUID = -8078217025563508066L;
+
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("borrowerId", String.class),
+            new ObjectStreamField("issueDate", LocalDate.class),
+            new ObjectStreamField("dueDate", LocalDate.class),
+            new ObjectStreamField("copy", int.class)
+    };
+
+    private String borrowerId;
+    private LocalDate issueDate;
+    private LocalDate dueDate;
+    private int copy; // copy number within the book, from 1; 0 until the book places the loan
+    volatile transient LoanTable table; // set while this is a view
+    transient int slot;
+
+    public BorrowRecord(String borrowerId) {
+        this.borrowerId = borrowerId;
+        this.issueDate = LocalDate.now();
+        this.dueDate = issueDate.plusDays(14);
+    }
+
+    public BorrowRecord(String borrowerId, LocalDate issueDate, LocalDate dueDate) {
+        this.borrowerId = borrowerId;
+        this.issueDate = issueDate;
+        this.dueDate = dueDate;
+    }
+
+    BorrowRecord(String borrowerId, LocalDate issueDate, LocalDate dueDate, int copy) {
+        this(borrowerId, issueDate, dueDate);
+        this.copy = copy;
+    }
+
+    public String getBorrowerId() {
+        LoanTable t = table;
+        if (t != null) {
+            long code = t.read(this, LoanTable.BORROWER);
+            if (code != LoanTable.RELEASED) {
+                return t.borrowerId(code);
+            }
+        }
+        return borrowerId;
+    }
+
+    public int getCopy() {
+        long value = column(LoanTable.COPY);
+        return value != LoanTable.RELEASED ? (int) value : copy;
+    }
+
+    public LocalDate getIssueDate() {
+        long day = column(LoanTable.ISSUE_DAY);
+        return day != LoanTable.RELEASED ? LocalDate.ofEpochDay(day) : issueDate;
+    }
+
+    public LocalDate getDueDate() {
+        long day = column(LoanTable.DUE_DAY);
+        return day != LoanTable.RELEASED ? LocalDate.ofEpochDay(day) : dueDate;
+    }
+
+    private long column(int column) {
+        LoanTable t = table;
+        return t == null ? LoanTable.RELEASED : t.read(this, column);
+    }
+
+    // Only before the loan is placed.
+    void setCopy(int copy) {
+        this.copy = copy;
+    }
+
+    // Called by LoanTable under its write lock.
+    void attach(LoanTable table, int slot) {
+        this.slot = slot;
+        this.table = table;
+        borrowerId = null;
+        issueDate = null;
+        dueDate = null;
+    }
+
+    void detach(String borrowerId, LocalDate issueDate, LocalDate dueDate, int copy) {
+        this.borrowerId = borrowerId;
+        this.issueDate = issueDate;
+        this.dueDate = dueDate;
+        this.copy = copy;
+        table = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("borrowerId", getBorrowerId());
+        fields.put("issueDate", getIssueDate());
+        fields.put("dueDate", getDueDate());
+        fields.put("copy", getCopy());
+        out.writeFields();
+    }
+
+    @Override
+    public String toString() {
+        return getBorrowerId() + " (Issued: " + getIssueDate() + ", Due: " + getDueDate() + ")";
+    }
+}
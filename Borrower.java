@@ -0,0 +1,28 @@
+import java.io.*;
+
+/* ---------------- BORROWER CLASS ---------------- */
+class Borrower implements Serializable {
+    // Pinned to the value of the original class so legacy .dat files still load.
+    private static final long serialVersionUID = -2957880851636386194L;
+
+    private String id; // 3-digit ID
+    private String name;
+
+    public Borrower(String id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return id + " - " + name;
+    }
+}
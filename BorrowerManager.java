@@ -0,0 +1,123 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* ---------------- BORROWER MANAGER ---------------- */
+class BorrowerManager {
+    private Map<String, Borrower> borrowers = new ConcurrentHashMap<>();
+    private final String BORROWERS_FILE = "borrowers.bin";
+    private final String LEGACY_BORROWERS_FILE = "borrowers.dat";
+    private static final int FILE_MAGIC = 0x42525752; // "BRWR"
+    private static final short FILE_VERSION = 1;
+    private final Journal journal = new Journal("borrowers.journal");
+    private static final int COMPACT_EVERY = 200;
+    private final Compactor compactor = new Compactor(journal, COMPACT_EVERY, this::saveBorrowers);
+
+    public BorrowerManager() {
+        loadBorrowers();
+    }
+
+    private void loadBorrowers() {
+        long snapshotSeq = 0;
+        File legacy = new File(LEGACY_BORROWERS_FILE);
+        boolean migrate = !new File(BORROWERS_FILE).exists() && legacy.exists();
+        BinaryFile.tempFor(new File(BORROWERS_FILE)).delete(); // left by a crash mid-save
+        borrowers = new ConcurrentHashMap<>();
+        if (migrate) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacy))) {
+                borrowers.putAll((Map<String, Borrower>) ois.readObject());
+                snapshotSeq = Journal.readSnapshotSeq(ois);
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(legacy, e);
+            }
+        } else if (new File(BORROWERS_FILE).exists()) {
+            try (BinaryFile.Reader in = new BinaryFile.Reader(new File(BORROWERS_FILE), FILE_MAGIC, FILE_VERSION)) {
+                snapshotSeq = in.getLong();
+                for (int n = in.getInt(); n > 0; n--) {
+                    Borrower b = new Borrower(in.getString(), in.getString());
+                    borrowers.put(b.getId(), b);
+                }
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(new File(BORROWERS_FILE), e);
+            }
+        }
+        journal.replay(snapshotSeq, in -> {
+            Borrower b = new Borrower(in.readUTF(), in.readUTF());
+            borrowers.put(b.getId(), b);
+        });
+        if (migrate) {
+            // The legacy file is only set aside once its replacement is on disk.
+            try {
+                saveBorrowers();
+            } catch (IOException e) {
+                throw BinaryFile.unwritable(new File(BORROWERS_FILE), e);
+            }
+            legacy.renameTo(new File(LEGACY_BORROWERS_FILE + ".bak"));
+        } else {
+            compactor.compactIfDue();
+        }
+    }
+
+    private synchronized void saveBorrowers() throws IOException {
+        File file = new File(BORROWERS_FILE);
+        File tmp = BinaryFile.tempFor(file);
+        try (BinaryFile.Writer out = new BinaryFile.Writer(tmp, FILE_MAGIC, FILE_VERSION)) {
+            out.putLong(journal.getLastSeq());
+            out.putInt(borrowers.size());
+            for (Borrower b : borrowers.values()) {
+                out.putString(b.getId());
+                out.putString(b.getName());
+            }
+        }
+        BinaryFile.replace(tmp, file);
+        journal.reset();
+    }
+
+    Compactor compaction() {
+        return compactor;
+    }
+
+    /** Folds the journal into a fresh borrowers.bin snapshot; UncheckedIOException if it cannot be written. */
+    public synchronized void checkpoint() {
+        try {
+            if (journal.getPending() > 0) {
+                compactor.saveNow();
+            }
+        } catch (IOException e) {
+            throw BinaryFile.unwritable(new File(BORROWERS_FILE), e);
+        } finally {
+            journal.close();
+        }
+    }
+
+    // Lookups are lock-free; creation is synchronized so a snapshot never
+    // misses a borrower whose journal entry it is about to discard.
+    public Borrower getOrCreateBorrower(String id, String name) {
+        Borrower existing = borrowers.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        synchronized (this) {
+            existing = borrowers.get(id);
+            if (existing != null) {
+                return existing;
+            }
+            Borrower newBorrower = new Borrower(id, name);
+            borrowers.put(id, newBorrower);
+            journal.append(out -> {
+                out.writeUTF(newBorrower.getId());
+                out.writeUTF(newBorrower.getName());
+            });
+            compactor.compactIfDue();
+            return newBorrower;
+        }
+    }
+
+    public Borrower getBorrower(String id) {
+        return borrowers.get(id);
+    }
+
+    public Map<String, Borrower> getAllBorrowers() {
+        return borrowers;
+    }
+}
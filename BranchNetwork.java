@@ -0,0 +1,195 @@
+import javax.management.JMException;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+/* ---------------- BRANCH NETWORK ---------------- */
+// Branch-sharded mode. Each branch is a full Library in branches/<name>/ with
+// its own snapshot, journal, history and locks, so branches load, save and
+// compact independently and a busy branch never blocks another. Borrowers
+// and users stay shared across the network. Cross-branch queries fan out
+// to every shard on a ForkJoinPool and merge the answers.
+class BranchNetwork {
+    static final String DIR = "branches";
+    // Lower-case so names map to the same directory on every file system.
+    private static final Pattern NAME = Pattern.compile("[a-z0-9][a-z0-9-]{0,31}");
+    // Route words under /branches that cannot also be branch names.
+    private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("search", "availability"));
+
+    /** A search hit and the branch that holds it. */
+    static final class Hit {
+        final String branch;
+        final Book book;
+
+        Hit(String branch, Book book) {
+            this.branch = branch;
+            this.book = book;
+        }
+    }
+
+    /** One branch's stock of a title. */
+    static final class Availability {
+        final String branch;
+        final int available;
+        final int total;
+        final int waiting; // holds queued there
+
+        Availability(String branch, int available, int total, int waiting) {
+            this.branch = branch;
+            this.available = available;
+            this.total = total;
+            this.waiting = waiting;
+        }
+    }
+
+    private final File root;
+    private final boolean lazy;
+    private final ConcurrentSkipListMap<String, Library> branches = new ConcurrentSkipListMap<>();
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Opens every branch under root/branches plus any named ones not created yet, loading them in parallel. */
+    BranchNetwork(File root, Collection<String> names, boolean lazy) {
+        this.root = new File(root, DIR);
+        this.lazy = lazy;
+        Set<String> all = new TreeSet<>(names);
+        File[] existing = this.root.listFiles(File::isDirectory);
+        if (existing != null) {
+            for (File dir : existing) {
+                all.add(dir.getName());
+            }
+        }
+        for (String name : all) {
+            if (!validName(name)) {
+                throw new IllegalArgumentException("Invalid branch name '" + name
+                        + "': use 1-32 lower-case letters, digits or '-'.");
+            }
+        }
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (String name : all) {
+            loads.add(CompletableFuture.runAsync(() -> branches.put(name, open(name)), pool));
+        }
+        join(loads);
+    }
+
+    static boolean validName(String name) {
+        return NAME.matcher(name).matches() && !RESERVED.contains(name);
+    }
+
+    private Library open(String name) {
+        File dir = new File(root, name);
+        dir.mkdirs();
+        return new Library(dir, lazy);
+    }
+
+    /** The branch's library, or null. */
+    public Library branch(String name) {
+        return branches.get(name);
+    }
+
+    /** Opens a new, empty branch; the existing one if the name is taken. */
+    public Library addBranch(String name) {
+        if (!validName(name)) {
+            throw new IllegalArgumentException("Invalid branch name '" + name + "'.");
+        }
+        return branches.computeIfAbsent(name, this::open);
+    }
+
+    /** Branch names in order. */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(branches.keySet());
+    }
+
+    /** Books held across all branches. */
+    public int size() {
+        int total = 0;
+        for (Library lib : branches.values()) {
+            total += lib.size();
+        }
+        return total;
+    }
+
+    /** Title/author matches in every branch, by book ID and then branch. */
+    public List<Hit> search(String keyword) {
+        List<CompletableFuture<List<Hit>>> parts = new ArrayList<>(branches.size());
+        for (Map.Entry<String, Library> e : branches.entrySet()) {
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                List<Hit> hits = new ArrayList<>();
+                for (Book b : e.getValue().findBooks(keyword)) {
+                    hits.add(new Hit(e.getKey(), b));
+                }
+                return hits;
+            }, pool));
+        }
+        List<Hit> merged = new ArrayList<>();
+        for (List<Hit> hits : join(parts)) {
+            merged.addAll(hits);
+        }
+        // Each shard's hits are already in ID order and shards are in name
+        // order, so this stable sort only interleaves them.
+        merged.sort(Comparator.comparingInt(h -> h.book.getId()));
+        return merged;
+    }
+
+    /** Stock of bookId in each branch that carries it, in branch order. */
+    public List<Availability> availability(int bookId) {
+        List<CompletableFuture<Availability>> parts = new ArrayList<>(branches.size());
+        for (Map.Entry<String, Library> e : branches.entrySet()) {
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                Library lib = e.getValue();
+                Book b = lib.getBook(bookId);
+                return b == null ? null : new Availability(e.getKey(), b.getAvailableCopies(),
+                        b.getTotalCopies(), lib.holdQueueLength(bookId));
+            }, pool));
+        }
+        List<Availability> result = new ArrayList<>();
+        for (Availability a : join(parts)) {
+            if (a != null) {
+                result.add(a);
+            }
+        }
+        return result;
+    }
+
+    public void startFineSweeps() {
+        for (Library lib : branches.values()) {
+            lib.startFineSweeps();
+        }
+    }
+
+    public void registerMetrics() throws JMException {
+        for (Map.Entry<String, Library> e : branches.entrySet()) {
+            e.getValue().getMetrics().register(e.getKey());
+        }
+    }
+
+    /** Saves every branch, in parallel. */
+    public void checkpoint() {
+        List<CompletableFuture<Void>> saves = new ArrayList<>(branches.size());
+        for (Library lib : branches.values()) {
+            saves.add(CompletableFuture.runAsync(lib::checkpoint, pool));
+        }
+        join(saves);
+    }
+
+    // Waits for all of them; the first failure is rethrown unwrapped.
+    private static <T> List<T> join(List<CompletableFuture<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        RuntimeException failure = null;
+        for (CompletableFuture<T> f : futures) {
+            try {
+                results.add(f.join());
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+}
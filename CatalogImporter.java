@@ -0,0 +1,248 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/* ---------------- BULK CATALOG IMPORT ---------------- */
+// Streams a CSV or TSV acquisition list into the catalog:
+//
+//   id,title,author,copies
+//
+// A header line is skipped if its first field is not a number. TSV is used
+// when the file name ends in .tsv or the first line contains a tab. CSV
+// fields may be double-quoted, with "" for a literal quote.
+//
+// Lines are read in batches; each batch is parsed in parallel, checked for
+// IDs repeated within the file, and handed to Library.addBooks in one go,
+// which journals it as one entry. The catalog is snapshotted once, after the
+// last batch.
+class CatalogImporter {
+    static final int BATCH_SIZE = 10_000;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final int MAX_FIELD_BYTES = 0xFFFF; // string limit of the .bin format
+
+    private final Library library;
+    private int imported;
+    private int duplicates;
+    private int invalid;
+    private final List<String> errors = new ArrayList<>();
+
+    /** What an import did; the front end decides how to present it. */
+    static final class Report {
+        final boolean empty;       // the file had no lines at all
+        final int imported;
+        final int duplicates;
+        final int invalid;
+        final double seconds;
+        final List<String> errors; // the first MAX_REPORTED_ERRORS problems, in file order
+        final int unlisted;        // problems beyond those
+        final String failure;      // why reading stopped early, or null
+
+        private Report(boolean empty, int imported, int duplicates, int invalid, double seconds,
+                List<String> errors, String failure) {
+            this.empty = empty;
+            this.imported = imported;
+            this.duplicates = duplicates;
+            this.invalid = invalid;
+            this.seconds = seconds;
+            this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+            this.unlisted = invalid + duplicates - errors.size();
+            this.failure = failure;
+        }
+
+        double booksPerSecond() {
+            return imported / Math.max(seconds, 1e-9);
+        }
+    }
+
+    /** Told after each batch is in the catalog. */
+    interface Progress {
+        void batchDone(int linesRead, int imported, double seconds);
+    }
+
+    public CatalogImporter(Library library) {
+        this.library = library;
+    }
+
+    public Report importFile(File file) {
+        return importFile(file, (lines, done, seconds) -> { });
+    }
+
+    // Throws UncheckedIOException if the final snapshot cannot be written;
+    // the imported batches are journaled by then and survive a restart.
+    public Report importFile(File file, Progress progress) {
+        long start = System.nanoTime();
+        Set<Integer> seen = new HashSet<>();
+        String failure = null;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            String first = in.readLine();
+            if (first == null) {
+                return new Report(true, 0, 0, 0, 0, errors, null);
+            }
+            if (first.startsWith("\uFEFF")) {
+                first = first.substring(1);
+            }
+            char delimiter = file.getName().toLowerCase().endsWith(".tsv") || first.indexOf('\t') >= 0 ? '\t' : ',';
+
+            int lineNo = 1;
+            List<String> lines = new ArrayList<>(BATCH_SIZE);
+            if (!isHeader(first, delimiter)) {
+                lines.add(first);
+            } else {
+                lineNo++;
+            }
+            int batchStart = lineNo;
+            String line;
+            while (true) {
+                while (lines.size() < BATCH_SIZE && (line = in.readLine()) != null) {
+                    lines.add(line);
+                }
+                if (lines.isEmpty()) {
+                    break;
+                }
+                importBatch(lines, batchStart, delimiter, seen);
+                batchStart += lines.size();
+                lines.clear();
+                progress.batchDone(batchStart - 1, imported, (System.nanoTime() - start) / 1e9);
+            }
+        } catch (IOException e) {
+            failure = e.getMessage();
+        }
+
+        if (imported > 0) {
+            library.finishImport();
+        }
+        return new Report(false, imported, duplicates, invalid, (System.nanoTime() - start) / 1e9, errors, failure);
+    }
+
+    private void importBatch(List<String> lines, int firstLineNo, char delimiter, Set<Integer> seen) {
+        // Parsing is independent per line, so it fans out; everything after is in file order.
+        Object[] parsed = IntStream.range(0, lines.size()).parallel()
+                .mapToObj(i -> parseLine(lines.get(i), delimiter))
+                .toArray();
+
+        List<Book> batch = new ArrayList<>(lines.size());
+        for (int i = 0; i < parsed.length; i++) {
+            int lineNo = firstLineNo + i;
+            if (parsed[i] == null) {
+                continue; // blank line
+            }
+            if (parsed[i] instanceof String) {
+                invalid++;
+                reportError("Line " + lineNo + ": " + parsed[i]);
+                continue;
+            }
+            Book b = (Book) parsed[i];
+            if (!seen.add(b.getId())) {
+                duplicates++;
+                reportError("Line " + lineNo + ": book ID " + b.getId() + " appears earlier in the file");
+                continue;
+            }
+            batch.add(b);
+        }
+
+        List<Integer> existing = library.addBooks(batch);
+        for (int id : existing) {
+            reportError("Book ID " + id + " already exists in the catalog");
+        }
+        duplicates += existing.size();
+        imported += batch.size() - existing.size();
+    }
+
+    private void reportError(String message) {
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    private static boolean isHeader(String line, char delimiter) {
+        List<String> fields = splitLine(line, delimiter);
+        if (fields == null || fields.isEmpty()) {
+            return false;
+        }
+        try {
+            Integer.parseInt(fields.get(0).trim());
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    // A Book, an error message (String), or null for a blank line.
+    private static Object parseLine(String line, char delimiter) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        List<String> fields = splitLine(line, delimiter);
+        if (fields == null) {
+            return "unterminated quoted field";
+        }
+        if (fields.size() != 4) {
+            return "expected 4 fields (id, title, author, copies), found " + fields.size();
+        }
+        int id;
+        int copies;
+        try {
+            id = Integer.parseInt(fields.get(0).trim());
+        } catch (NumberFormatException e) {
+            return "book ID is not a number: " + fields.get(0);
+        }
+        if (!Book.validId(id)) {
+            return "book ID must be positive: " + id;
+        }
+        try {
+            copies = Integer.parseInt(fields.get(3).trim());
+        } catch (NumberFormatException e) {
+            return "copies is not a number: " + fields.get(3);
+        }
+        String title = fields.get(1).trim();
+        String author = fields.get(2).trim();
+        if (title.isEmpty()) {
+            return "title is empty";
+        }
+        if (!Book.validCopies(copies)) {
+            return "copies must be between 0 and " + Book.MAX_COPIES;
+        }
+        if (title.getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_BYTES
+                || author.getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_BYTES) {
+            return "title or author is too long";
+        }
+        return new Book(id, title, author, copies);
+    }
+
+    // Returns null when a quoted field is not closed.
+    static List<String> splitLine(String line, char delimiter) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && delimiter == ',' && field.toString().trim().isEmpty()) {
+                field.setLength(0);
+                quoted = true;
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
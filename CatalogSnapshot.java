@@ -0,0 +1,98 @@
+import java.util.*;
+import java.util.function.IntFunction;
+
+/* ---------------- CATALOG SNAPSHOT ---------------- */
+// An immutable, versioned view of which books are in the catalog and in what
+// order. The library bumps its version at the end of every add, update,
+// delete and remap, under the catalog write lock; a reader takes the
+// snapshot of the current version (built on first demand after a change,
+// then shared) and walks it without any lock. A full listing, an export or a
+// lazy-mode scan therefore never holds the catalog lock for its duration,
+// and cannot queue a structural writer, and the issues and returns behind
+// that writer, for as long as it runs.
+//
+// Membership and order are frozen; the Book objects themselves are the live
+// ones, so availability shown from a snapshot is current. In lazy mode the
+// snapshot keeps the mapping it was taken from (which stays readable after a
+// newer snapshot file replaces it) and a copy of the deleted slots, and
+// decodes books nobody has materialized yet on the fly without caching them,
+// so walking the whole catalog does not pull it onto the heap.
+final class CatalogSnapshot implements Iterable<Book> {
+    final long version;
+    private final Book[] books; // eager mode: all; lazy mode: added since the mapping was made
+    private final MappedCatalog mapped; // null in eager mode
+    private final BitSet deletedSlots;
+    private final IntFunction<Book> materialized; // id -> the library's materialized copy, or null
+    private final int size;
+
+    // Callers hold the catalog lock.
+    CatalogSnapshot(long version, List<Book> books, MappedCatalog mapped, BitSet deletedSlots,
+            IntFunction<Book> materialized) {
+        this.version = version;
+        List<Book> live = new ArrayList<>(books.size());
+        for (Book b : books) {
+            if (b != null) { // a removed book's hole
+                live.add(b);
+            }
+        }
+        this.books = live.toArray(new Book[0]);
+        this.mapped = mapped;
+        this.deletedSlots = mapped == null ? null : (BitSet) deletedSlots.clone();
+        this.materialized = materialized;
+        this.size = this.books.length + (mapped == null ? 0 : mapped.size() - this.deletedSlots.cardinality());
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Every book in catalog order. */
+    @Override
+    public Iterator<Book> iterator() {
+        if (mapped == null) {
+            return Arrays.asList(books).iterator();
+        }
+        return new Iterator<Book>() {
+            private int slot = nextSlot(0);
+            private int added;
+
+            private int nextSlot(int from) {
+                int next = deletedSlots.nextClearBit(from);
+                return next < mapped.size() ? next : -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return slot >= 0 || added < books.length;
+            }
+
+            @Override
+            public Book next() {
+                if (slot < 0) {
+                    if (added == books.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return books[added++];
+                }
+                Book b = materialized.apply(mapped.id(slot));
+                if (b == null) {
+                    b = mapped.materialize(slot);
+                }
+                slot = nextSlot(slot + 1);
+                return b;
+            }
+        };
+    }
+
+    /** The books in catalog order, read-only. */
+    List<Book> toList() {
+        if (mapped == null) {
+            return Collections.unmodifiableList(Arrays.asList(books));
+        }
+        List<Book> list = new ArrayList<>(size);
+        for (Book b : this) {
+            list.add(b);
+        }
+        return Collections.unmodifiableList(list);
+    }
+}
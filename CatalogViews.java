@@ -0,0 +1,131 @@
+import java.util.*;
+
+/* ---------------- SORTED CATALOG VIEWS ---------------- */
+// Book IDs kept sorted by ID, title or author for paged listing. A page is
+// read from a cursor (the sort key and ID of the last row of the previous
+// page) with one tree descent, so page N costs the same as page 1.
+//
+// Each order is built the first time it is listed and maintained from then
+// on; orders nobody asks for cost nothing, which matters in lazy mode.
+class CatalogViews {
+    enum Order { ID, TITLE, AUTHOR }
+
+    /** Position just after the last row of a page. */
+    static final class Cursor implements Comparable<Cursor> {
+        final String key; // lower-cased title/author, "" for ID order
+        final int id;
+
+        Cursor(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            int c = key.compareTo(o.key);
+            return c != 0 ? c : Integer.compare(id, o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Cursor && compareTo((Cursor) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + id;
+        }
+
+        /** "id:key"; the ID never contains ':' so the key may. */
+        @Override
+        public String toString() {
+            return id + ":" + key;
+        }
+
+        static Cursor parse(String s) {
+            int colon = s.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Malformed cursor.");
+            }
+            try {
+                return new Cursor(s.substring(colon + 1), Integer.parseInt(s.substring(0, colon)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor.");
+            }
+        }
+    }
+
+    static final class Page {
+        final List<Book> books;
+        final Cursor next; // null on the last page
+
+        Page(List<Book> books, Cursor next) {
+            this.books = books;
+            this.next = next;
+        }
+    }
+
+    private final EnumMap<Order, TreeSet<Cursor>> views = new EnumMap<>(Order.class);
+
+    static Cursor keyOf(Book b, Order order) {
+        switch (order) {
+            case TITLE:
+                return new Cursor(b.getTitle().toLowerCase(), b.getId());
+            case AUTHOR:
+                return new Cursor(b.getAuthor().toLowerCase(), b.getId());
+            default:
+                return new Cursor("", b.getId());
+        }
+    }
+
+    public synchronized void ensureBuilt(Order order, Iterable<Book> books) {
+        if (!views.containsKey(order)) {
+            views.put(order, build(order, books));
+        }
+    }
+
+    public synchronized boolean isBuilt(Order order) {
+        return views.containsKey(order);
+    }
+
+    /** A view of books in order, built without touching this object (e.g. outside the catalog lock). */
+    static TreeSet<Cursor> build(Order order, Iterable<Book> books) {
+        TreeSet<Cursor> view = new TreeSet<>();
+        for (Book b : books) {
+            view.add(keyOf(b, order));
+        }
+        return view;
+    }
+
+    /** Adopts a view from build(); the caller guarantees no book changed since. Keeps one already built. */
+    public synchronized void install(Order order, TreeSet<Cursor> view) {
+        views.putIfAbsent(order, view);
+    }
+
+    public synchronized void add(Book b) {
+        for (Map.Entry<Order, TreeSet<Cursor>> e : views.entrySet()) {
+            e.getValue().add(keyOf(b, e.getKey()));
+        }
+    }
+
+    // Call before the book's title or author changes.
+    public synchronized void remove(Book b) {
+        for (Map.Entry<Order, TreeSet<Cursor>> e : views.entrySet()) {
+            e.getValue().remove(keyOf(b, e.getKey()));
+        }
+    }
+
+    /** Up to limit keys after the cursor (from the start when null), plus one to detect a further page. */
+    public synchronized List<Cursor> page(Order order, Cursor after, int limit) {
+        TreeSet<Cursor> view = views.get(order);
+        SortedSet<Cursor> tail = after == null ? view : view.tailSet(after, false);
+        List<Cursor> keys = new ArrayList<>(Math.min(limit + 1, 1024));
+        for (Cursor c : tail) {
+            keys.add(c);
+            if (keys.size() > limit) {
+                break;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.*;
+
+/* ---------------- CIRCULATION ---------------- */
+// Request and result types for issues and returns. Library.issueCopy and
+// returnCopy produce one Result; Library.circulate applies a list of Ops as
+// one all-or-nothing batch and returns a Result per Op, in order.
+class Circulation {
+    enum Kind { ISSUE, RETURN }
+
+    static class Op {
+        final Kind kind;
+        final int bookId;
+        final String borrowerId;
+
+        Op(Kind kind, int bookId, String borrowerId) {
+            this.kind = kind;
+            this.bookId = bookId;
+            this.borrowerId = borrowerId;
+        }
+
+        static Op issue(int bookId, String borrowerId) {
+            return new Op(Kind.ISSUE, bookId, borrowerId);
+        }
+
+        static Op ret(int bookId, String borrowerId) {
+            return new Op(Kind.RETURN, bookId, borrowerId);
+        }
+    }
+
+    static class Result {
+        private static final Result[] FAILURES = new Result[Outcome.values().length];
+
+        static {
+            for (Outcome o : Outcome.values()) {
+                FAILURES[o.ordinal()] = new Result(o, null, 0, null);
+            }
+        }
+
+        final Outcome outcome;
+        final BorrowRecord record; // the loan issued or returned; null unless OK
+        final long fine;           // returns only, in paise
+        final Holds.Hold hold;     // returns only: the hold the copy was set aside for, or null
+
+        private Result(Outcome outcome, BorrowRecord record, long fine, Holds.Hold hold) {
+            this.outcome = outcome;
+            this.record = record;
+            this.fine = fine;
+            this.hold = hold;
+        }
+
+        static Result issued(BorrowRecord record) {
+            return new Result(Outcome.OK, record, 0, null);
+        }
+
+        static Result returned(BorrowRecord record, long fine) {
+            return returned(record, fine, null);
+        }
+
+        static Result returned(BorrowRecord record, long fine, Holds.Hold hold) {
+            return new Result(Outcome.OK, record, fine, hold);
+        }
+
+        // Failures carry no data, so they are shared.
+        static Result failed(Outcome outcome) {
+            return FAILURES[outcome.ordinal()];
+        }
+
+        boolean isOk() {
+            return outcome == Outcome.OK;
+        }
+    }
+
+    /** True when every item in a batch result was applied. */
+    static boolean committed(List<Result> results) {
+        for (Result r : results) {
+            if (!r.isOk()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
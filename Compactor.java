@@ -0,0 +1,80 @@
+import java.io.IOException;
+
+/* ---------------- JOURNAL COMPACTION ---------------- */
+// Folds a journal into a fresh snapshot once it holds `every` entries. A
+// failed compaction loses nothing, since the journal still holds every
+// change, so it is retried; but not at every change, since on a full disk
+// each attempt would rewrite the whole snapshot for nothing. After a
+// failure the next attempt waits a second, doubling per further failure up
+// to five minutes. The failure count and the last error are published with
+// the metrics; checkpoint() saves at once and reports its own failure.
+//
+// Callers serialize compactions with their own lock (the catalog write
+// lock, or the manager's monitor), as they do their saves.
+final class Compactor implements Metrics.CompactionMXBean {
+    interface Save {
+        void run() throws IOException;
+    }
+
+    private final Journal journal;
+    private final int every;
+    private final Save save;
+    private long failures;
+    private IOException lastFailure; // null since the last successful save
+    private final Backoff backoff = new Backoff();
+
+    Compactor(Journal journal, int every, Save save) {
+        this.journal = journal;
+        this.every = every;
+        this.save = save;
+    }
+
+    /** Whether enough has been journaled, and any backoff after a failure has passed. */
+    synchronized boolean due() {
+        return journal.getPending() >= every && backoff.ready();
+    }
+
+    /** Compacts if due; a failure is recorded, not thrown. */
+    void compactIfDue() {
+        if (!due()) {
+            return;
+        }
+        try {
+            saveNow();
+        } catch (IOException e) {
+            // recorded by saveNow; retried after the backoff
+        }
+    }
+
+    /** Saves now, whatever the backoff, recording the outcome. */
+    void saveNow() throws IOException {
+        try {
+            save.run();
+        } catch (IOException e) {
+            failed(e);
+            throw e;
+        }
+        succeeded();
+    }
+
+    private synchronized void failed(IOException e) {
+        failures++;
+        lastFailure = e;
+        backoff.failed();
+    }
+
+    private synchronized void succeeded() {
+        lastFailure = null;
+        backoff.succeeded();
+    }
+
+    @Override
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized String getLastError() {
+        return lastFailure == null ? null : lastFailure.getMessage();
+    }
+}
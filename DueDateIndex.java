@@ -0,0 +1,94 @@
+import java.time.LocalDate;
+import java.util.*;
+
+/* ---------------- DUE DATE INDEX ---------------- */
+// Active loans ordered by due date (epoch day). The overdue report reads the
+// head of the map, and the daily sweep only touches loans that became
+// overdue since the previous sweep, so both cost O(overdue) at most.
+class DueDateIndex {
+    private final TreeMap<Long, List<LoanIndex.Loan>> byDueDay = new TreeMap<>();
+    private long sweptDay = Long.MIN_VALUE; // loans due before this day are counted as overdue
+    private int overdueCount;
+    private int size;
+    private long accruedFines; // paise
+
+    public synchronized void add(int bookId, BorrowRecord record) {
+        long due = record.getDueDate().toEpochDay();
+        byDueDay.computeIfAbsent(due, d -> new ArrayList<>(2)).add(new LoanIndex.Loan(bookId, record));
+        size++;
+        if (due < sweptDay) {
+            overdueCount++;
+            accruedFines += (sweptDay - due) * Book.FINE_PER_DAY;
+        }
+    }
+
+    // Matched by book and copy number: in lazy mode the indexed record may be
+    // a different object from the one on the materialized Book.
+    public synchronized void remove(int bookId, BorrowRecord record) {
+        long due = record.getDueDate().toEpochDay();
+        List<LoanIndex.Loan> loans = byDueDay.get(due);
+        if (loans == null) {
+            return;
+        }
+        for (int i = 0; i < loans.size(); i++) {
+            LoanIndex.Loan loan = loans.get(i);
+            if (loan.bookId == bookId && loan.record.getCopy() == record.getCopy()) {
+                loans.remove(i);
+                size--;
+                if (loans.isEmpty()) {
+                    byDueDay.remove(due);
+                }
+                if (due < sweptDay) {
+                    overdueCount--;
+                    accruedFines -= (sweptDay - due) * Book.FINE_PER_DAY;
+                }
+                return;
+            }
+        }
+    }
+
+    /** Loans whose due date is before today, most overdue first. */
+    public synchronized List<LoanIndex.Loan> overdue(LocalDate today) {
+        List<LoanIndex.Loan> result = new ArrayList<>();
+        for (List<LoanIndex.Loan> loans : byDueDay.headMap(today.toEpochDay(), false).values()) {
+            result.addAll(loans);
+        }
+        return result;
+    }
+
+    /**
+     * Advances fines to today: every loan already overdue accrues one day's
+     * fine per elapsed day, and loans that fell due since the last sweep are
+     * added to the overdue set.
+     */
+    public synchronized void sweep(LocalDate today) {
+        long day = today.toEpochDay();
+        if (day <= sweptDay) {
+            return;
+        }
+        if (sweptDay != Long.MIN_VALUE) {
+            accruedFines += overdueCount * (day - sweptDay) * Book.FINE_PER_DAY;
+        }
+        Map<Long, List<LoanIndex.Loan>> newlyOverdue = sweptDay == Long.MIN_VALUE
+                ? byDueDay.headMap(day, false)
+                : byDueDay.subMap(sweptDay, true, day, false);
+        for (Map.Entry<Long, List<LoanIndex.Loan>> e : newlyOverdue.entrySet()) {
+            overdueCount += e.getValue().size();
+            accruedFines += e.getValue().size() * (day - e.getKey()) * Book.FINE_PER_DAY;
+        }
+        sweptDay = day;
+    }
+
+    /** Active loans. */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getOverdueCount() {
+        return overdueCount;
+    }
+
+    public synchronized long getAccruedFines() {
+        return accruedFines;
+    }
+}
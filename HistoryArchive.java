@@ -0,0 +1,507 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/* ---------------- HISTORY ARCHIVE ---------------- */
+// Every returned loan, kept column by column for analytics. Rows are
+// appended to history.tail (fixed-width, row-oriented, so an append is one
+// small write); every SEGMENT_ROWS rows the tail is sealed into an immutable
+// columnar segment file that queries memory-map. A query scans only the
+// columns it needs as primitive buffers, in parallel, and builds objects
+// only for the rows it returns.
+//
+//   history-<firstRow>.seg  int magic, short version, short reserved,
+//                           long firstRow, int rows, int reserved, then
+//                           int bookId[rows], int issueDay[rows], int dueDay[rows],
+//                           int returnDay[rows], int finePaise[rows], short borrower[rows]
+//   history.tail            int magic, short version, short reserved, long firstRow,
+//                           then rows of [int bookId, short borrower, int issueDay,
+//                           int dueDay, int returnDay, int finePaise]
+//
+// Rows are numbered from 0 across the archive. A crash between sealing a
+// segment and resetting the tail leaves rows in both; loading skips the
+// tail rows a segment already covers. Tail appends reach the OS at once
+// but are fsynced only by flush(), so history is not as durable as the
+// journal: a power cut can lose the last few returns' rows. A row that
+// cannot be written is counted by lostRows() for the front end to report.
+class HistoryArchive {
+    static final int SEGMENT_ROWS = 1 << 16;
+
+    private static final int SEGMENT_MAGIC = 0x48495354; // "HIST"
+    private static final int TAIL_MAGIC = 0x4854414C;    // "HTAL"
+    private static final short VERSION = 1;
+    private static final int SEGMENT_HEADER = 24;
+    private static final int TAIL_HEADER = 16;
+    private static final int ROW_BYTES = 22; // 5 ints + 1 short, in either layout
+    private static final String TAIL_FILE = "history.tail";
+
+    /** One returned loan, materialized for a query result. */
+    static final class Entry {
+        final int bookId;
+        final String borrowerId;
+        final LocalDate issueDate;
+        final LocalDate dueDate;
+        final LocalDate returnDate;
+        final long fine;
+
+        Entry(int bookId, String borrowerId, LocalDate issueDate, LocalDate dueDate, LocalDate returnDate, long fine) {
+            this.bookId = bookId;
+            this.borrowerId = borrowerId;
+            this.issueDate = issueDate;
+            this.dueDate = dueDate;
+            this.returnDate = returnDate;
+            this.fine = fine;
+        }
+    }
+
+    /** A book and how many times it has been borrowed. */
+    static final class Count {
+        final int bookId;
+        final long loans;
+
+        Count(int bookId, long loans) {
+            this.bookId = bookId;
+            this.loans = loans;
+        }
+    }
+
+    /*
+     * A run of rows as primitive columns. Sealed segments wrap slices of
+     * their mapping; the open tail wraps its arrays, which are only ever
+     * appended to, so a view of the first n rows stays valid without a copy.
+     */
+    private static final class Columns {
+        final int rows;
+        final IntBuffer bookId;
+        final ShortBuffer borrower;
+        final IntBuffer issueDay;
+        final IntBuffer dueDay;
+        final IntBuffer returnDay;
+        final IntBuffer fine;
+
+        Columns(int rows, IntBuffer bookId, ShortBuffer borrower, IntBuffer issueDay,
+                IntBuffer dueDay, IntBuffer returnDay, IntBuffer fine) {
+            this.rows = rows;
+            this.bookId = bookId;
+            this.borrower = borrower;
+            this.issueDay = issueDay;
+            this.dueDay = dueDay;
+            this.returnDay = returnDay;
+            this.fine = fine;
+        }
+
+        Entry entry(int i) {
+            return new Entry(bookId.get(i), borrowerId(borrower.get(i)), LocalDate.ofEpochDay(issueDay.get(i)),
+                    LocalDate.ofEpochDay(dueDay.get(i)), LocalDate.ofEpochDay(returnDay.get(i)), fine.get(i));
+        }
+    }
+
+    private final File dir;
+    private final File tailFile;
+    private final List<Columns> segments = new ArrayList<>(); // guarded by this
+    private long nextSegmentRow;                             // first row of the open tail
+    private FileChannel tail;
+    private final ByteBuffer row = ByteBuffer.allocate(ROW_BYTES);
+
+    private int open;
+    private int[] bookIds = new int[64];
+    private short[] borrowers = new short[64];
+    private int[] issueDays = new int[64];
+    private int[] dueDays = new int[64];
+    private int[] returnDays = new int[64];
+    private int[] fines = new int[64];
+    private long lostRows;
+    private IOException lastFailure;
+    private final Backoff sealRetry = new Backoff();
+
+    HistoryArchive(File dir) {
+        this.dir = dir;
+        this.tailFile = new File(dir, TAIL_FILE);
+        try {
+            load();
+        } catch (IOException e) {
+            throw BinaryFile.unreadable(dir, e);
+        }
+    }
+
+    /** Records a returned loan. */
+    public synchronized void append(int bookId, BorrowRecord record, LocalDate returned, long fine) {
+        if (open == bookIds.length) {
+            grow();
+        }
+        bookIds[open] = bookId;
+        borrowers[open] = borrowerKey(record.getBorrowerId());
+        issueDays[open] = (int) record.getIssueDate().toEpochDay();
+        dueDays[open] = (int) record.getDueDate().toEpochDay();
+        returnDays[open] = (int) returned.toEpochDay();
+        fines[open] = (int) Math.min(fine, Integer.MAX_VALUE);
+        try {
+            row.clear();
+            row.putInt(bookIds[open]).putShort(borrowers[open]).putInt(issueDays[open])
+                    .putInt(dueDays[open]).putInt(returnDays[open]).putInt(fines[open]);
+            row.flip();
+            long at = TAIL_HEADER + (long) open * ROW_BYTES;
+            while (row.hasRemaining()) {
+                at += tail.write(row, at);
+            }
+        } catch (IOException e) {
+            // The loan itself is already returned; only its history row is lost.
+            lostRows++;
+            lastFailure = e;
+            return;
+        }
+        open++;
+        if (open >= SEGMENT_ROWS && sealRetry.ready()) {
+            try {
+                seal();
+                sealRetry.succeeded();
+            } catch (IOException e) {
+                // The rows are still in the tail; the tail just grows until a seal succeeds.
+                sealRetry.failed();
+            }
+        }
+    }
+
+    /** Makes every appended row durable; UncheckedIOException if the tail cannot be forced. */
+    public synchronized void flush() {
+        try {
+            tail.force(false);
+        } catch (IOException e) {
+            throw BinaryFile.unwritable(tailFile, e);
+        }
+    }
+
+    /** Returned loans whose rows could not be written since startup. */
+    public synchronized long lostRows() {
+        return lostRows;
+    }
+
+    /** Why the last row was lost, or null. */
+    public synchronized IOException lastFailure() {
+        return lastFailure;
+    }
+
+    public synchronized long size() {
+        return nextSegmentRow + open;
+    }
+
+    /** The most-borrowed books, most loans first (ties by book ID). */
+    public List<Count> mostBorrowed(int limit) {
+        Counts counts = new Counts();
+        for (Columns c : snapshot()) {
+            counts.merge(IntStream.range(0, c.rows).parallel()
+                    .collect(Counts::new, (acc, i) -> acc.add(c.bookId.get(i), 1), Counts::merge));
+        }
+        List<Count> result = new ArrayList<>(counts.size);
+        for (int s = 0; s < counts.keys.length; s++) {
+            if (counts.used[s]) {
+                result.add(new Count(counts.keys[s], counts.values[s]));
+            }
+        }
+        result.sort(Comparator.comparingLong((Count c) -> -c.loans).thenComparingInt(c -> c.bookId));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /** Every returned loan of borrowerId, oldest return first. */
+    public List<Entry> historyOf(String borrowerId) {
+        short key = borrowerKey(borrowerId);
+        if (key < 0) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<>();
+        for (Columns c : snapshot()) {
+            result.addAll(IntStream.range(0, c.rows).parallel()
+                    .filter(i -> c.borrower.get(i) == key)
+                    .mapToObj(c::entry)
+                    .collect(Collectors.toList()));
+        }
+        return result;
+    }
+
+    /** Fines charged per calendar month of return, in paise, for the months that had any. */
+    public SortedMap<YearMonth, Long> monthlyFines() {
+        Counts counts = new Counts();
+        for (Columns c : snapshot()) {
+            counts.merge(IntStream.range(0, c.rows).parallel()
+                    .filter(i -> c.fine.get(i) > 0)
+                    .collect(Counts::new, (acc, i) -> acc.add(monthOf(c.returnDay.get(i)), c.fine.get(i)),
+                            Counts::merge));
+        }
+        SortedMap<YearMonth, Long> result = new TreeMap<>();
+        for (int s = 0; s < counts.keys.length; s++) {
+            if (counts.used[s]) {
+                int month = counts.keys[s];
+                result.put(YearMonth.of(month / 12, month % 12 + 1), counts.values[s]);
+            }
+        }
+        return result;
+    }
+
+    private static int monthOf(int epochDay) {
+        LocalDate d = LocalDate.ofEpochDay(epochDay);
+        return d.getYear() * 12 + d.getMonthValue() - 1;
+    }
+
+    // Sealed segments plus a view of the open rows; scanned without the lock.
+    private synchronized List<Columns> snapshot() {
+        List<Columns> all = new ArrayList<>(segments.size() + 1);
+        all.addAll(segments);
+        if (open > 0) {
+            all.add(new Columns(open, IntBuffer.wrap(bookIds, 0, open), ShortBuffer.wrap(borrowers, 0, open),
+                    IntBuffer.wrap(issueDays, 0, open), IntBuffer.wrap(dueDays, 0, open),
+                    IntBuffer.wrap(returnDays, 0, open), IntBuffer.wrap(fines, 0, open)));
+        }
+        return all;
+    }
+
+    // Borrower IDs are short digit strings; anything else is kept as -1 (unknown).
+    private static short borrowerKey(String borrowerId) {
+        if (borrowerId.isEmpty() || borrowerId.length() > 4) {
+            return -1;
+        }
+        for (int i = 0; i < borrowerId.length(); i++) {
+            if (!Character.isDigit(borrowerId.charAt(i))) {
+                return -1;
+            }
+        }
+        return Short.parseShort(borrowerId);
+    }
+
+    private static String borrowerId(short key) {
+        return key < 0 ? "?" : String.format("%03d", key);
+    }
+
+    // The arrays are replaced, never shrunk, so views handed out by snapshot() stay intact.
+    private void grow() {
+        int n = bookIds.length * 2;
+        bookIds = Arrays.copyOf(bookIds, n);
+        borrowers = Arrays.copyOf(borrowers, n);
+        issueDays = Arrays.copyOf(issueDays, n);
+        dueDays = Arrays.copyOf(dueDays, n);
+        returnDays = Arrays.copyOf(returnDays, n);
+        fines = Arrays.copyOf(fines, n);
+    }
+
+    // Memory changes only once the segment and the fresh tail are both on
+    // disk, so a failed seal leaves the rows in the tail to be sealed later.
+    private void seal() throws IOException {
+        File file = segmentFile(nextSegmentRow);
+        File tmp = BinaryFile.tempFor(file);
+        try (BinaryFile.Writer out = new BinaryFile.Writer(tmp, SEGMENT_MAGIC, VERSION)) {
+            out.putShort((short) 0);
+            out.putLong(nextSegmentRow);
+            out.putInt(open);
+            out.putInt(0);
+            for (int[] column : new int[][] {bookIds, issueDays, dueDays, returnDays, fines}) {
+                for (int i = 0; i < open; i++) {
+                    out.putInt(column[i]);
+                }
+            }
+            for (int i = 0; i < open; i++) {
+                out.putShort(borrowers[i]);
+            }
+        }
+        BinaryFile.replace(tmp, file);
+        Columns sealed = map(file);
+        resetTail(nextSegmentRow + open);
+        segments.add(sealed);
+        nextSegmentRow += open;
+        open = 0;
+        bookIds = new int[64];
+        borrowers = new short[64];
+        issueDays = new int[64];
+        dueDays = new int[64];
+        returnDays = new int[64];
+        fines = new int[64];
+    }
+
+    private File segmentFile(long firstRow) {
+        return new File(dir, String.format("history-%012d.seg", firstRow));
+    }
+
+    // Starts an empty tail at firstRow. The old tail stays open until the
+    // new one is in place.
+    private void resetTail(long firstRow) throws IOException {
+        File tmp = BinaryFile.tempFor(tailFile);
+        try (BinaryFile.Writer out = new BinaryFile.Writer(tmp, TAIL_MAGIC, VERSION)) {
+            out.putShort((short) 0);
+            out.putLong(firstRow);
+        }
+        BinaryFile.replace(tmp, tailFile);
+        FileChannel fresh = FileChannel.open(tailFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (tail != null) {
+            tail.close();
+        }
+        tail = fresh;
+    }
+
+    private void load() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) {
+                f.delete(); // left by a crash mid-seal
+            } else if (f.getName().startsWith("history-") && f.getName().endsWith(".seg")) {
+                Columns c = map(f);
+                segments.add(c);
+                nextSegmentRow += c.rows;
+            }
+        }
+        if (!tailFile.exists()) {
+            resetTail(nextSegmentRow);
+            return;
+        }
+        long firstRow;
+        try (BinaryFile.Reader in = new BinaryFile.Reader(tailFile, TAIL_MAGIC, VERSION)) {
+            in.getShort();
+            firstRow = in.getLong();
+        }
+        long rows = (tailFile.length() - TAIL_HEADER) / ROW_BYTES; // a torn last row is dropped
+        long skip = nextSegmentRow - firstRow;                    // already sealed before a crash
+        if (firstRow > nextSegmentRow) {
+            throw new IOException(TAIL_FILE + " starts at row " + firstRow + " but segments end at " + nextSegmentRow);
+        }
+        try (BinaryFile.Reader in = new BinaryFile.Reader(tailFile, TAIL_MAGIC, VERSION)) {
+            in.getShort();
+            in.getLong();
+            for (long r = 0; r < rows; r++) {
+                int bookId = in.getInt();
+                short borrower = in.getShort();
+                int issue = in.getInt();
+                int due = in.getInt();
+                int returned = in.getInt();
+                int fine = in.getInt();
+                if (r < skip) {
+                    continue;
+                }
+                if (open == bookIds.length) {
+                    grow();
+                }
+                bookIds[open] = bookId;
+                borrowers[open] = borrower;
+                issueDays[open] = issue;
+                dueDays[open] = due;
+                returnDays[open] = returned;
+                fines[open] = fine;
+                open++;
+            }
+        }
+        // Rewrite the tail when it carried sealed rows or a torn one, so appends land at the right offset.
+        if (skip > 0 || tailFile.length() != TAIL_HEADER + rows * ROW_BYTES) {
+            rewriteTail();
+        } else {
+            tail = FileChannel.open(tailFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    private void rewriteTail() throws IOException {
+        int rows = open;
+        open = 0;
+        resetTail(nextSegmentRow);
+        ByteBuffer buf = ByteBuffer.allocate(rows * ROW_BYTES);
+        for (int i = 0; i < rows; i++) {
+            buf.putInt(bookIds[i]).putShort(borrowers[i]).putInt(issueDays[i])
+                    .putInt(dueDays[i]).putInt(returnDays[i]).putInt(fines[i]);
+        }
+        buf.flip();
+        long at = TAIL_HEADER;
+        while (buf.hasRemaining()) {
+            at += tail.write(buf, at);
+        }
+        tail.force(false);
+        open = rows;
+    }
+
+    private static Columns map(File file) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (map.capacity() < SEGMENT_HEADER || map.getInt(0) != SEGMENT_MAGIC || map.getShort(4) != VERSION) {
+            throw new IOException(file.getName() + " is not a history segment");
+        }
+        int rows = map.getInt(16);
+        if (map.capacity() != SEGMENT_HEADER + (long) rows * ROW_BYTES) {
+            throw new IOException(file.getName() + " is truncated");
+        }
+        int at = SEGMENT_HEADER;
+        IntBuffer[] ints = new IntBuffer[5];
+        for (int k = 0; k < ints.length; k++) {
+            ints[k] = slice(map, at, rows * 4).asIntBuffer();
+            at += rows * 4;
+        }
+        ShortBuffer borrower = slice(map, at, rows * 2).asShortBuffer();
+        return new Columns(rows, ints[0], borrower, ints[1], ints[2], ints[3], ints[4]);
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, int at, int length) {
+        ByteBuffer view = map.duplicate();
+        view.position(at);
+        view.limit(at + length);
+        return view.slice();
+    }
+
+    /*
+     * Open-addressing int -> long accumulator (no boxing), one per stream
+     * worker and merged at the end.
+     */
+    private static final class Counts {
+        int[] keys = new int[64];
+        long[] values = new long[64];
+        boolean[] used = new boolean[64];
+        int size;
+
+        void add(int key, long delta) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int s = (h ^ (h >>> 16)) & mask;
+            while (used[s] && keys[s] != key) {
+                s = (s + 1) & mask;
+            }
+            if (!used[s]) {
+                used[s] = true;
+                keys[s] = key;
+                size++;
+            }
+            values[s] += delta;
+        }
+
+        void merge(Counts other) {
+            for (int s = 0; s < other.keys.length; s++) {
+                if (other.used[s]) {
+                    add(other.keys[s], other.values[s]);
+                }
+            }
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldUsed[s]) {
+                    add(oldKeys[s], oldValues[s]);
+                }
+            }
+        }
+    }
+}
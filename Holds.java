@@ -0,0 +1,230 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* ---------------- HOLD QUEUES ---------------- */
+// Per-book reservation queues. A hold waits in its book's FIFO until a copy
+// comes back; the copy is then set aside for it (ready) until a pickup
+// deadline, tracked on a timer wheel. Library calls every mutator while
+// holding the book's stripe lock, so queues of different books never
+// contend; only the borrower view and the wheel are shared.
+class Holds {
+    static final int PICKUP_DAYS = 3;
+
+    static final class Hold {
+        final int bookId;
+        final String borrowerId;
+        final LocalDate placed;
+        int copy;             // the copy set aside for it, 0 while waiting
+        LocalDate readyUntil; // last pickup day, null while waiting
+        private long rank;    // position + the queue's served count
+        private TimerWheel.Timer<Hold> expiry;
+
+        Hold(int bookId, String borrowerId, LocalDate placed) {
+            this.bookId = bookId;
+            this.borrowerId = borrowerId;
+            this.placed = placed;
+        }
+
+        boolean isReady() {
+            return copy > 0;
+        }
+    }
+
+    /** A borrower-facing snapshot of one hold. */
+    static final class Status {
+        final int bookId;
+        final int position;   // 1 = next in line; 0 once ready
+        final int copy;
+        final LocalDate readyUntil;
+
+        Status(int bookId, int position, int copy, LocalDate readyUntil) {
+            this.bookId = bookId;
+            this.position = position;
+            this.copy = copy;
+            this.readyUntil = readyUntil;
+        }
+    }
+
+    /*
+     * Waiting holds keep a rank fixed at enqueue; the queue counts how many
+     * holds have left from the front, so position = rank - served is O(1)
+     * and serving the head is O(1). Only a hold leaving from the middle
+     * (cancelled) renumbers the ones behind it.
+     */
+    private static final class Queue {
+        final ArrayDeque<Hold> waiting = new ArrayDeque<>(4);
+        final List<Hold> ready = new ArrayList<>(1);
+        long served;
+
+        boolean isEmpty() {
+            return waiting.isEmpty() && ready.isEmpty();
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Queue> byBook = new ConcurrentHashMap<>();
+    // Lists are replaced rather than mutated, as in LoanIndex.
+    private final ConcurrentHashMap<String, List<Hold>> byBorrower = new ConcurrentHashMap<>();
+    private final TimerWheel<Hold> pickups = new TimerWheel<>(64, LocalDate.now().toEpochDay() - 1);
+
+    /** Queues a hold; null if the borrower already has one on this book. */
+    public Hold place(int bookId, String borrowerId, LocalDate placed) {
+        if (find(bookId, borrowerId) != null) {
+            return null;
+        }
+        Hold h = new Hold(bookId, borrowerId, placed);
+        enqueue(h);
+        return h;
+    }
+
+    private void enqueue(Hold h) {
+        Queue q = byBook.computeIfAbsent(h.bookId, k -> new Queue());
+        h.rank = q.served + q.waiting.size() + 1;
+        q.waiting.addLast(h);
+        index(h);
+    }
+
+    /** Re-adds a hold read from a snapshot, in its original queue order. */
+    public void restore(Hold h) {
+        if (h.isReady()) {
+            byBook.computeIfAbsent(h.bookId, k -> new Queue()).ready.add(h);
+            index(h);
+            h.expiry = pickups.schedule(h, h.readyUntil.toEpochDay() + 1);
+        } else {
+            enqueue(h);
+        }
+    }
+
+    public Hold find(int bookId, String borrowerId) {
+        for (Hold h : holdsOf(borrowerId)) {
+            if (h.bookId == bookId) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    /** The hold first in line for bookId's next copy, or null. */
+    public Hold nextWaiting(int bookId) {
+        Queue q = byBook.get(bookId);
+        return q == null ? null : q.waiting.peekFirst();
+    }
+
+    /** Sets copy aside for a waiting hold until the end of readyUntil. */
+    public void ready(Hold h, int copy, LocalDate readyUntil) {
+        Queue q = byBook.get(h.bookId);
+        leaveWaiting(q, h);
+        h.copy = copy;
+        h.readyUntil = readyUntil;
+        q.ready.add(h);
+        h.expiry = pickups.schedule(h, readyUntil.toEpochDay() + 1);
+    }
+
+    /** Removes a hold, waiting or ready. False if it is no longer queued. */
+    public boolean remove(Hold h) {
+        Queue q = byBook.get(h.bookId);
+        if (q == null) {
+            return false;
+        }
+        if (h.isReady()) {
+            if (!q.ready.remove(h)) {
+                return false;
+            }
+            pickups.cancel(h.expiry);
+        } else if (!leaveWaiting(q, h)) {
+            return false;
+        }
+        if (q.isEmpty()) {
+            byBook.remove(h.bookId, q);
+        }
+        unindex(h);
+        return true;
+    }
+
+    private static boolean leaveWaiting(Queue q, Hold h) {
+        if (q.waiting.peekFirst() == h) {
+            q.waiting.pollFirst();
+            q.served++;
+            return true;
+        }
+        boolean found = false;
+        for (Iterator<Hold> it = q.waiting.iterator(); it.hasNext(); ) {
+            Hold w = it.next();
+            if (found) {
+                w.rank--;
+            } else if (w == h) {
+                it.remove();
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /** Drops every hold on a deleted book. */
+    public void removeBook(int bookId) {
+        Queue q = byBook.remove(bookId);
+        if (q == null) {
+            return;
+        }
+        for (Hold h : q.ready) {
+            pickups.cancel(h.expiry);
+            unindex(h);
+        }
+        for (Hold h : q.waiting) {
+            unindex(h);
+        }
+    }
+
+    public int waitingCount(int bookId) {
+        Queue q = byBook.get(bookId);
+        return q == null ? 0 : q.waiting.size();
+    }
+
+    public Status status(Hold h) {
+        Queue q = byBook.get(h.bookId);
+        int position = h.isReady() || q == null ? 0 : (int) (h.rank - q.served);
+        return new Status(h.bookId, position, h.copy, h.readyUntil);
+    }
+
+    public List<Hold> holdsOf(String borrowerId) {
+        List<Hold> holds = byBorrower.get(borrowerId);
+        return holds == null ? Collections.<Hold>emptyList() : holds;
+    }
+
+    /** Ready holds whose pickup day has passed as of today; they stay queued until removed. */
+    public List<Hold> expired(LocalDate today) {
+        return pickups.advanceTo(today.toEpochDay());
+    }
+
+    /** Every hold, each book's ready ones first and then its waiting ones in line order. */
+    public List<Hold> all() {
+        List<Hold> all = new ArrayList<>();
+        for (Queue q : byBook.values()) {
+            all.addAll(q.ready);
+            all.addAll(q.waiting);
+        }
+        return all;
+    }
+
+    public void clear() {
+        byBook.clear();
+        byBorrower.clear();
+        pickups.clear();
+    }
+
+    private void index(Hold h) {
+        byBorrower.compute(h.borrowerId, (k, holds) -> {
+            List<Hold> updated = holds == null ? new ArrayList<>(1) : new ArrayList<>(holds);
+            updated.add(h);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    private void unindex(Hold h) {
+        byBorrower.computeIfPresent(h.borrowerId, (k, holds) -> {
+            List<Hold> updated = new ArrayList<>(holds);
+            updated.remove(h);
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+    }
+}
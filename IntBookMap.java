@@ -0,0 +1,126 @@
+import java.util.Arrays;
+
+/* ---------------- INT -> BOOK MAP ---------------- */
+// Open-addressing hash map keyed by primitive book ID (no Integer boxing).
+class IntBookMap {
+    private static final int EMPTY = 0;
+    private static final int FULL = 1;
+    private static final int DELETED = 2;
+
+    private int[] keys;
+    private Book[] values;
+    private byte[] states;
+    private int size;
+    private int used; // FULL + DELETED slots
+
+    public IntBookMap() {
+        this(16);
+    }
+
+    public IntBookMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 / 4 <= expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Book[capacity];
+        states = new byte[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (states[i] != EMPTY) {
+            if (states[i] == FULL && keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public Book get(int key) {
+        int i = slotOf(key);
+        return i < 0 ? null : values[i];
+    }
+
+    public boolean containsKey(int key) {
+        return slotOf(key) >= 0;
+    }
+
+    public Book put(int key, Book value) {
+        if ((used + 1) * 4 > keys.length * 3) {
+            rehash(size * 2 >= keys.length / 2 ? keys.length << 1 : keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        int firstDeleted = -1;
+        while (states[i] != EMPTY) {
+            if (states[i] == FULL && keys[i] == key) {
+                Book old = values[i];
+                values[i] = value;
+                return old;
+            }
+            if (states[i] == DELETED && firstDeleted < 0) {
+                firstDeleted = i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (firstDeleted >= 0) {
+            i = firstDeleted;
+        } else {
+            used++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        states[i] = FULL;
+        size++;
+        return null;
+    }
+
+    public Book remove(int key) {
+        int i = slotOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Book old = values[i];
+        values[i] = null;
+        states[i] = DELETED;
+        size--;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(states, (byte) EMPTY);
+        size = 0;
+        used = 0;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        Book[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] == FULL) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
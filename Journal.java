@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/* ---------------- APPEND-ONLY JOURNAL ---------------- */
+// Each entry on disk: [int length][long seq][payload]. Entries with a seq
+// already covered by the last snapshot are skipped on replay. Appends are
+// serialized, so a journal may be shared between threads.
+//
+// How long append() waits is set by -Dlibrary.durability:
+//   sync     write and fsync before returning
+//   grouped  (default) hand the entry to the writer thread and wait for the
+//            fsync of the group it lands in; bursts share one fsync
+//   async    hand the entry to the writer thread and return at once; a crash
+//            can lose the last few milliseconds of changes
+//
+// A failed write or fsync fails the journal: the entries it held are never
+// reported durable, whatever part of them reached the file is cut off, and
+// every later append throws until reset() (a snapshot that covers them all)
+// empties the journal.
+class Journal {
+    enum Durability { SYNC, GROUPED, ASYNC }
+
+    static final Durability DURABILITY = Durability.valueOf(
+            System.getProperty("library.durability", "grouped").toUpperCase());
+
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    interface Reader {
+        void read(DataInputStream in) throws IOException;
+    }
+
+    private final File file;
+    private final Durability durability;
+    private FileChannel channel;
+    private long lastSeq;
+    private int pending; // entries written since the last snapshot
+    private long bytesWritten; // by this process, for metrics
+
+    // Entries appended but not yet written, and the highest seq known to be on disk.
+    private ByteArrayOutputStream queued = new ByteArrayOutputStream();
+    private long queuedSeq;
+    private long durableSeq;
+    private Thread writerThread;
+    private IOException failure; // set by a failed write, cleared by reset()
+    // Held while writing to the channel, so reset() never truncates under a write.
+    // Always taken before the monitor of this object.
+    private final Object ioLock = new Object();
+
+    public Journal(String fileName) {
+        this(fileName, DURABILITY);
+    }
+
+    public Journal(String fileName, Durability durability) {
+        this.file = new File(fileName);
+        this.durability = durability;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Reads the journal seq stored after a snapshot; 0 for pre-journal snapshots. */
+    public static long readSnapshotSeq(ObjectInputStream ois) {
+        try {
+            return ois.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replays every entry newer than snapshotSeq. A torn last entry (the file
+     * ends inside its length, seq or payload) is what a crash mid-append
+     * leaves and is cut off. Anything else, a corrupt entry or one the reader
+     * rejects, stops the load (see BinaryFile.unreadable) rather than
+     * silently dropping it and every entry after it.
+     */
+    public synchronized int replay(long snapshotSeq, Reader reader) {
+        lastSeq = snapshotSeq;
+        durableSeq = snapshotSeq;
+        pending = 0;
+        if (!file.exists()) {
+            return 0;
+        }
+        int applied = 0;
+        long fileLength = file.length();
+        long goodLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (fileLength - goodLength >= 4 + 8) {
+                int length = in.readInt();
+                long seq = in.readLong();
+                if (length < 0) {
+                    throw new IOException("corrupt entry at byte " + goodLength);
+                }
+                if (length > fileLength - goodLength - 4 - 8) {
+                    break; // torn payload
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (seq > snapshotSeq) {
+                    try {
+                        reader.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                    } catch (Exception e) {
+                        throw new IOException("entry " + seq + " at byte " + goodLength + ": " + e, e);
+                    }
+                    lastSeq = seq;
+                    applied++;
+                }
+                goodLength += 4 + 8 + length;
+                pending++;
+            }
+        } catch (IOException e) {
+            throw BinaryFile.unreadable(file, e);
+        }
+        if (goodLength < fileLength) {
+            // Appends must not land behind the torn bytes.
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(goodLength);
+            } catch (IOException e) {
+                throw BinaryFile.unreadable(file, e);
+            }
+        }
+        durableSeq = lastSeq;
+        return applied;
+    }
+
+    /**
+     * Appends an entry and returns once it is as durable as the configured
+     * mode promises. Throws UncheckedIOException if the journal has failed.
+     */
+    public void append(Writer writer) {
+        awaitDurable(enqueue(writer));
+    }
+
+    /*
+     * Appends an entry without waiting for the disk (except in sync mode) and
+     * returns its seq. Throws UncheckedIOException if the journal has failed
+     * or the entry could not be encoded. Callers holding
+     * locks use this and call awaitDurable after releasing them, so that
+     * concurrent changes can share one fsync.
+     */
+    public long enqueue(Writer writer) {
+        long seq;
+        synchronized (this) {
+            if (failure != null) {
+                throw failed();
+            }
+            try {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+                writer.write(new DataOutputStream(payload));
+                DataOutputStream entry = new DataOutputStream(queued);
+                entry.writeInt(payload.size());
+                entry.writeLong(lastSeq + 1);
+                payload.writeTo(entry);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Journal entry could not be encoded (" + e.getMessage()
+                        + "); the change is not durable.", e);
+            }
+            seq = ++lastSeq;
+            queuedSeq = seq;
+            pending++;
+            if (durability != Durability.SYNC) {
+                startWriter();
+                notifyAll();
+                return seq;
+            }
+        }
+        flush();
+        synchronized (this) {
+            if (durableSeq < seq) {
+                throw failed();
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * In grouped mode, blocks until the entry with this seq has been fsynced.
+     * Throws UncheckedIOException if the write holding it failed, or if the
+     * thread is interrupted first: the entry may still become durable, but
+     * the caller cannot report that it is.
+     */
+    public void awaitDurable(long seq) {
+        if (durability != Durability.GROUPED) {
+            return;
+        }
+        synchronized (this) {
+            while (durableSeq < seq) {
+                if (failure != null) {
+                    throw failed();
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interrupted = new InterruptedIOException(
+                            "interrupted before journal entry " + seq + " was fsynced");
+                    throw new UncheckedIOException("Journal " + file.getName() + ": " + interrupted.getMessage()
+                            + "; the change is not known to be durable.", interrupted);
+                }
+            }
+        }
+    }
+
+    private void startWriter() {
+        if (writerThread == null) {
+            writerThread = new Thread(this::writeLoop, "journal-writer-" + file.getName());
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    // Group commit: everything queued while the previous fsync ran goes out in one write and one fsync.
+    private void writeLoop() {
+        while (true) {
+            synchronized (this) {
+                while (queued.size() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            flush();
+        }
+    }
+
+    /** Writes and fsyncs everything queued so far. */
+    private void flush() {
+        synchronized (ioLock) {
+            byte[] batch;
+            long batchSeq;
+            synchronized (this) {
+                if (queued.size() == 0) {
+                    return;
+                }
+                batch = queued.toByteArray();
+                batchSeq = queuedSeq;
+                queued = new ByteArrayOutputStream();
+                if (failure != null) {
+                    return; // queued before the failure; their waiters are told
+                }
+            }
+            long start = -1;
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                start = channel.size();
+                ByteBuffer buf = ByteBuffer.wrap(batch);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                discardPartialWrite(start);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                bytesWritten += batch.length;
+                durableSeq = Math.max(durableSeq, batchSeq);
+                notifyAll();
+            }
+        }
+    }
+
+    // Best effort: the journal is failed either way, and a torn tail is cut
+    // off on replay, but a clean end keeps the file readable by hand.
+    private void discardPartialWrite(long start) {
+        if (start < 0) {
+            return;
+        }
+        try {
+            channel.truncate(start);
+        } catch (IOException ignored) {
+            // replay() cuts a torn tail
+        }
+    }
+
+    private UncheckedIOException failed() {
+        return new UncheckedIOException("Journal " + file.getName() + " could not be written ("
+                + failure.getMessage() + "); the change is not durable.", failure);
+    }
+
+    /**
+     * Empties the journal once a durable snapshot covering lastSeq has been
+     * written. If the file cannot be emptied its entries stay, skipped on
+     * replay as covered, and pending is kept so the next compaction retries.
+     */
+    public void reset() throws IOException {
+        synchronized (ioLock) {
+            synchronized (this) {
+                queued = new ByteArrayOutputStream(); // covered by the snapshot
+                failure = null;
+                durableSeq = lastSeq;
+                notifyAll();
+                closeChannel();
+                try (FileOutputStream truncate = new FileOutputStream(file)) {
+                    truncate.getFD().sync();
+                    pending = 0;
+                } catch (IOException e) {
+                    throw new IOException("journal " + file.getName() + " not emptied: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /** Writes out anything still queued and closes the file. */
+    public void close() {
+        flush();
+        synchronized (ioLock) {
+            synchronized (this) {
+                closeChannel();
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing is lost: every write was forced before the close.
+            }
+            channel = null;
+        }
+    }
+}
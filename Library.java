@@ -0,0 +1,1449 @@
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/* ---------------- LIBRARY CLASS ---------------- */
+class Library implements Serializable {
+    private ArrayList<Book> books = new ArrayList<>();
+    private transient IntBookMap bookIndex = new IntBookMap();
+    private transient SearchIndex searchIndex = new SearchIndex();
+    private transient RankedIndex rankedIndex = new RankedIndex();
+    private transient LoanIndex loanIndex = new LoanIndex();
+    private transient DueDateIndex dueIndex = new DueDateIndex();
+    private transient CatalogViews views = new CatalogViews();
+    private transient Holds holds = new Holds();
+    private transient List<Holds.Hold> snapshotHolds = Collections.emptyList(); // read by readSnapshot
+
+    private final transient Metrics metrics = new Metrics();
+    private final transient Metrics.Operation issueTimer = metrics.operation("issueBook");
+    private final transient Metrics.Operation returnTimer = metrics.operation("returnBook");
+    private final transient Metrics.Operation circulateTimer = metrics.operation("circulate");
+    private final transient Metrics.Operation holdTimer = metrics.operation("placeHold");
+    private final transient Metrics.Operation searchTimer = metrics.operation("searchBooks");
+    private final transient Metrics.Operation rankTimer = metrics.operation("rankBooks");
+    private final transient Metrics.Operation listTimer = metrics.operation("listPage");
+    private final transient Metrics.Operation addTimer = metrics.operation("addBook");
+    private final transient Metrics.Operation updateTimer = metrics.operation("updateBook");
+    private final transient Metrics.Operation deleteTimer = metrics.operation("deleteBook");
+    private final transient Metrics.Operation saveTimer = metrics.operation("saveToFile");
+    private final transient Metrics.Operation loadTimer = metrics.operation("loadFromFile");
+    private transient ScheduledExecutorService fineSweeper;
+    private final File dataFile;
+    private final File legacyFile;
+    private transient Journal journal;
+    private transient Compactor compactor;
+    private transient HistoryArchive history; // returned loans, for analytics
+    private final transient LoanTable loanTable = new LoanTable(); // values of the catalog's active loans
+    private static final int FILE_MAGIC = 0x4C425259; // "LBRY"
+
+    // Lazy mode: the snapshot stays memory-mapped and books are materialized
+    // into bookIndex on first access. books then only holds titles added
+    // since the mapping was made, and deletedSlots hides removed mapped ones.
+    private final boolean lazy;
+    private transient MappedCatalog mapped;
+    private transient BitSet deletedSlots;
+    // A removed book leaves a null in books, found through the book's slot,
+    // so removal neither scans nor shifts the list and catalog order holds.
+    // The holes are squeezed out once they are half the list.
+    private transient int removedBooks;
+    private final transient Object lazyLock = new Object();
+    private static final int COMPACT_EVERY = 1000;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+    private static final byte OP_ISSUE = 4;
+    private static final byte OP_RETURN = 5;
+    private static final byte OP_BATCH = 6; // int count, then count of the other ops
+    private static final byte OP_HOLD = 9;
+    private static final byte OP_HOLD_CANCEL = 10; // also collected or expired; a ready copy goes back on the shelf
+    private static final byte OP_HOLD_READY = 11;
+
+    // Catalog structure (books list and indexes) is guarded by catalogLock:
+    // add/update/delete/compaction take the write lock, short reads and
+    // issue/return the read lock; full walks of the catalog use a snapshot
+    // (below) and no lock. Loans on a single book are additionally
+    // serialized by that book's stripe, so issue/return on different books
+    // run in parallel.
+    private static final int LOCK_STRIPES = 64;
+    private final transient ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final transient Object[] bookLocks = new Object[LOCK_STRIPES];
+
+    // Long reads (listings, lazy-mode scans, sorting a listing order) walk an
+    // immutable CatalogSnapshot instead of holding the read lock throughout.
+    // Writers bump catalogVersion under the write lock as their change
+    // completes; the snapshot of a new version is built by its first reader.
+    private transient volatile long catalogVersion;
+    private transient volatile CatalogSnapshot snapshot;
+
+    // Rendered read-only views for the console and server. Each change drops
+    // the views it touches at its end, still under its locks.
+    private static final int VIEW_CACHE_SIZE = Integer.getInteger("library.viewCacheSize", 4096);
+    private final transient ViewCache<Integer> bookViews = new ViewCache<>(VIEW_CACHE_SIZE);
+    private final transient ViewCache<String> borrowerViews = new ViewCache<>(VIEW_CACHE_SIZE);
+
+    public Library() {
+        this(new File("."));
+    }
+
+    public Library(File dir) {
+        this(dir, false);
+    }
+
+    // Keeps library.bin, library.journal and history/ in dir instead of the working directory.
+    public Library(File dir, boolean lazy) {
+        this.lazy = lazy;
+        dataFile = new File(dir, "library.bin");
+        legacyFile = new File(dir, "library.dat");
+        journal = new Journal(new File(dir, "library.journal").getPath());
+        compactor = new Compactor(journal, COMPACT_EVERY, this::saveToFile);
+        history = new HistoryArchive(new File(dir, "history"));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            bookLocks[i] = new Object();
+        }
+        metrics.setGauges(this::size, () -> dueIndex.size(), journal::getBytesWritten);
+        metrics.cache("bookViews", bookViews);
+        metrics.cache("borrowerViews", borrowerViews);
+        metrics.compaction("library", compactor);
+        loadFromFile();
+        expireHolds();
+    }
+
+    private Book findBook(int id) {
+        if (mapped == null) {
+            return bookIndex.get(id);
+        }
+        // Readers materialize under the read lock, so bookIndex needs its own guard.
+        synchronized (lazyLock) {
+            Book b = bookIndex.get(id);
+            if (b == null) {
+                int slot = mapped.find(id);
+                if (slot >= 0 && !deletedSlots.get(slot)) {
+                    b = mapped.materialize(slot);
+                    b.keepLoansIn(loanTable);
+                    bookIndex.put(id, b);
+                }
+            }
+            return b;
+        }
+    }
+
+    private Book materializedBook(int id) {
+        synchronized (lazyLock) {
+            return bookIndex.get(id);
+        }
+    }
+
+    // putBook and removeBook are called under the write lock (or while loading).
+    private void putBook(Book b) {
+        b.keepLoansIn(loanTable);
+        b.setSlot(books.size());
+        books.add(b);
+        bookIndex.put(b.getId(), b);
+        catalogVersion++;
+    }
+
+    private void removeBook(Book b) {
+        b.releaseLoans();
+        bookIndex.remove(b.getId());
+        if (b.getSlot() >= 0) {
+            books.set(b.getSlot(), null);
+            b.setSlot(-1);
+            if (++removedBooks > books.size() / 2) {
+                squeezeBooks();
+            }
+        }
+        if (mapped != null) {
+            int slot = mapped.find(b.getId());
+            if (slot >= 0) {
+                deletedSlots.set(slot);
+            }
+        }
+        catalogVersion++;
+    }
+
+    private void squeezeBooks() {
+        ArrayList<Book> live = new ArrayList<>(books.size() - removedBooks);
+        for (Book b : books) {
+            if (b != null) {
+                b.setSlot(live.size());
+                live.add(b);
+            }
+        }
+        books = live;
+        removedBooks = 0;
+    }
+
+    private int bookCount() {
+        int count = books.size() - removedBooks;
+        if (mapped != null) {
+            count += mapped.size() - deletedSlots.cardinality();
+        }
+        return count;
+    }
+
+    /** The catalog as of the last completed change; safe to walk without the lock. */
+    private CatalogSnapshot snapshot() {
+        CatalogSnapshot s = snapshot;
+        if (s != null && s.version == catalogVersion) {
+            return s;
+        }
+        catalogLock.readLock().lock();
+        try {
+            return currentSnapshot();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Callers hold catalogLock, so the version cannot move while building;
+    // readers racing here build identical snapshots.
+    private CatalogSnapshot currentSnapshot() {
+        long version = catalogVersion;
+        CatalogSnapshot s = snapshot;
+        if (s == null || s.version != version) {
+            s = new CatalogSnapshot(version, books, mapped, deletedSlots, this::materializedBook);
+            snapshot = s;
+        }
+        return s;
+    }
+
+    private Object lockFor(int bookId) {
+        return bookLocks[(bookId ^ (bookId >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    private void rebuildIndex() {
+        squeezeBooks(); // numbers the slots of the books just loaded
+        bookIndex = new IntBookMap(books.size());
+        for (Book b : books) {
+            b.keepLoansIn(loanTable);
+            bookIndex.put(b.getId(), b);
+        }
+    }
+
+    private void rebuildSecondaryIndexes() {
+        searchIndex = new SearchIndex();
+        rankedIndex = new RankedIndex();
+        loanIndex = new LoanIndex();
+        dueIndex = new DueDateIndex();
+        views = new CatalogViews();
+        for (Book b : books) {
+            if (b == null) {
+                continue;
+            }
+            searchIndex.add(b);
+            rankedIndex.add(b);
+            for (BorrowRecord br : b.getBorrowRecords()) {
+                indexLoan(b.getId(), br);
+            }
+        }
+        if (mapped == null) {
+            return;
+        }
+        // Lazy mode has no search index; loans are read from the mapping
+        // (or the materialized copy) without loading the rest of the catalog.
+        // A materialized copy is asked even when its slot has no loans, since
+        // the journal may have issued some since the mapping was written.
+        for (int slot = deletedSlots.nextClearBit(0); slot < mapped.size(); slot = deletedSlots.nextClearBit(slot + 1)) {
+            int id = mapped.id(slot);
+            Book b = bookIndex.get(id);
+            if (b != null) {
+                for (BorrowRecord br : b.getBorrowRecords()) {
+                    indexLoan(id, br);
+                }
+            } else {
+                for (int k = 0; k < mapped.loanCount(slot); k++) {
+                    indexLoan(id, mapped.loan(slot, k));
+                }
+            }
+        }
+    }
+
+    private void indexLoan(int bookId, BorrowRecord record) {
+        loanIndex.add(bookId, record);
+        dueIndex.add(bookId, record);
+    }
+
+    private void unindexLoan(int bookId, BorrowRecord record) {
+        loanIndex.remove(bookId, record);
+        dueIndex.remove(bookId, record);
+    }
+
+    // Drops the cached views of bookId and, unless null, borrowerId's loans.
+    private void invalidateViews(int bookId, String borrowerId) {
+        bookViews.invalidate(bookId);
+        if (borrowerId != null) {
+            borrowerViews.invalidate(borrowerId);
+        }
+    }
+
+    // Also drops the views of everyone borrowing b, which show its title.
+    private void invalidateViews(Book b) {
+        bookViews.invalidate(b.getId());
+        for (BorrowRecord r : b.getBorrowRecords()) {
+            borrowerViews.invalidate(r.getBorrowerId());
+        }
+    }
+
+    public Outcome addBook(Book b) {
+        long start = System.nanoTime();
+        try {
+            return doAddBook(b);
+        } finally {
+            addTimer.record(start);
+        }
+    }
+
+    private Outcome doAddBook(Book b) {
+        long seq = -1;
+        catalogLock.writeLock().lock();
+        try {
+            if (findBook(b.getId()) != null) {
+                return Outcome.DUPLICATE_ID;
+            }
+            putBook(b);
+            searchIndex.add(b);
+            rankedIndex.add(b);
+            views.add(b);
+            seq = logChange(out -> writeAdd(out, b));
+            invalidateViews(b.getId(), null);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        afterChange(seq);
+        return Outcome.OK;
+    }
+
+    /*
+     * Bulk-import path: adds a batch under one write-lock acquisition and
+     * journals it as one OP_BATCH entry, so a loan on an imported book can
+     * never reach the journal ahead of the book. The importer still folds
+     * the journal into a snapshot at the end with finishImport().
+     * Returns the IDs rejected because they are already in the catalog.
+     */
+    public List<Integer> addBooks(List<Book> batch) {
+        List<Integer> duplicates = new ArrayList<>();
+        List<Book> added = new ArrayList<>(batch.size());
+        long seq = -1;
+        catalogLock.writeLock().lock();
+        try {
+            for (Book b : batch) {
+                if (findBook(b.getId()) != null) {
+                    duplicates.add(b.getId());
+                    continue;
+                }
+                putBook(b);
+                searchIndex.add(b);
+                rankedIndex.add(b);
+                views.add(b);
+                added.add(b);
+            }
+            if (!added.isEmpty()) {
+                seq = logChange(out -> {
+                    out.writeByte(OP_BATCH);
+                    out.writeInt(added.size());
+                    for (Book b : added) {
+                        writeAdd(out, b);
+                    }
+                });
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        afterChange(seq);
+        return duplicates;
+    }
+
+    /** Snapshots the catalog so books added through addBooks are on disk; UncheckedIOException if it cannot. */
+    public void finishImport() {
+        catalogLock.writeLock().lock();
+        try {
+            compactor.saveNow();
+        } catch (IOException e) {
+            throw BinaryFile.unwritable(dataFile, e);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    public Book getBook(int id) {
+        catalogLock.readLock().lock();
+        try {
+            return findBook(id);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /** Every book in catalog order, as of the last completed change; read-only. */
+    public List<Book> listBooks() {
+        return snapshot().toList();
+    }
+
+    public List<BorrowRecord> getBorrowRecords(int bookId) {
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null) {
+                return Collections.emptyList();
+            }
+            synchronized (lockFor(bookId)) {
+                return new ArrayList<>(b.getBorrowRecords());
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    public List<LoanIndex.Loan> loansOf(String borrowerId) {
+        return loanIndex.loansOf(borrowerId);
+    }
+
+    /**
+     * The view of book id in a ViewCache format, cached or else built by
+     * render. A null render (no such book) is not cached.
+     */
+    public String bookView(int id, int format, Supplier<String> render) {
+        return bookViews.get(id, format, render);
+    }
+
+    /** As bookView, for the view of borrowerId's loans. */
+    public String borrowerView(String borrowerId, int format, Supplier<String> render) {
+        return borrowerViews.get(borrowerId, format, render);
+    }
+
+    /** One page of the catalog in the given order, starting after the cursor (null for the first page). */
+    public CatalogViews.Page listPage(CatalogViews.Order order, CatalogViews.Cursor after, int limit) {
+        long start = System.nanoTime();
+        try {
+            return doListPage(order, after, limit);
+        } finally {
+            listTimer.record(start);
+        }
+    }
+
+    private CatalogViews.Page doListPage(CatalogViews.Order order, CatalogViews.Cursor after, int limit) {
+        if (!views.isBuilt(order)) {
+            // Sort outside the lock, then keep the result only if no change
+            // landed meanwhile (views.add skips orders not yet built).
+            CatalogSnapshot s = snapshot();
+            TreeSet<CatalogViews.Cursor> view = CatalogViews.build(order, s);
+            catalogLock.readLock().lock();
+            try {
+                if (s.version == catalogVersion) {
+                    views.install(order, view);
+                }
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+        }
+        catalogLock.readLock().lock();
+        try {
+            views.ensureBuilt(order, currentSnapshot());
+            List<CatalogViews.Cursor> keys = views.page(order, after, limit);
+            int rows = Math.min(keys.size(), limit);
+            List<Book> page = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                page.add(findBook(keys.get(i).id));
+            }
+            return new CatalogViews.Page(page, keys.size() > limit ? keys.get(limit - 1) : null);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public int size() {
+        catalogLock.readLock().lock();
+        try {
+            return bookCount();
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /** Books whose title or author contains keyword (case-insensitive), by ID. */
+    public List<Book> findBooks(String keyword) {
+        long start = System.nanoTime();
+        try {
+            return doFindBooks(keyword);
+        } finally {
+            searchTimer.record(start);
+        }
+    }
+
+    private List<Book> doFindBooks(String keyword) {
+        keyword = keyword.trim().toLowerCase();
+        List<Book> results = new ArrayList<>();
+        if (keyword.isEmpty()) {
+            return results;
+        }
+        if (lazy) {
+            // No search index in lazy mode: scan the snapshot without the
+            // lock, then materialize the hits.
+            List<Integer> hits = new ArrayList<>();
+            for (Book b : snapshot()) {
+                if (b.getTitle().toLowerCase().contains(keyword) ||
+                        b.getAuthor().toLowerCase().contains(keyword)) {
+                    hits.add(b.getId());
+                }
+            }
+            Collections.sort(hits);
+            catalogLock.readLock().lock();
+            try {
+                for (int id : hits) {
+                    Book b = findBook(id);
+                    if (b != null) { // null if deleted since the snapshot
+                        results.add(b);
+                    }
+                }
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+            return results;
+        }
+        catalogLock.readLock().lock();
+        try {
+            int[] candidates = searchIndex.candidates(keyword);
+            for (int id : candidates) {
+                Book b = findBook(id);
+                if (keyword.length() <= SearchIndex.MAX_GRAM ||
+                        b.getTitle().toLowerCase().contains(keyword) ||
+                        b.getAuthor().toLowerCase().contains(keyword)) {
+                    results.add(b);
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Up to limit books ranked by relevance to query, best first. Query
+     * words may be misspelt or cut short; see RankedIndex.
+     */
+    public List<RankedIndex.Match> rankBooks(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            return doRankBooks(query, limit);
+        } finally {
+            rankTimer.record(start);
+        }
+    }
+
+    private List<RankedIndex.Match> doRankBooks(String query, int limit) {
+        // Lazy mode has no index: the same ranking, by a scan of the snapshot
+        // outside the lock.
+        List<RankedIndex.Hit> scanned = lazy ? RankedIndex.scan(snapshot(), query, limit) : null;
+        catalogLock.readLock().lock();
+        try {
+            List<RankedIndex.Hit> hits = scanned != null ? scanned : rankedIndex.search(query, limit);
+            List<RankedIndex.Match> matches = new ArrayList<>(hits.size());
+            for (RankedIndex.Hit h : hits) {
+                Book b = findBook(h.id);
+                if (b != null) { // null if deleted since the snapshot
+                    matches.add(new RankedIndex.Match(b, h.score));
+                }
+            }
+            return matches;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /** OK, BOOK_NOT_FOUND, INVALID_COPIES, or COPY_ON_LOAN if a copy it would withdraw is out or set aside. */
+    public Outcome updateBook(int id, String title, String author, int copies) {
+        long start = System.nanoTime();
+        try {
+            return doUpdateBook(id, title, author, copies);
+        } finally {
+            updateTimer.record(start);
+        }
+    }
+
+    private Outcome doUpdateBook(int id, String title, String author, int copies) {
+        if (!Book.validCopies(copies)) {
+            return Outcome.INVALID_COPIES;
+        }
+        long seq = -1;
+        catalogLock.writeLock().lock();
+        try {
+            Book b = findBook(id);
+            if (b == null) {
+                return Outcome.BOOK_NOT_FOUND;
+            }
+            searchIndex.remove(b);
+            rankedIndex.remove(b);
+            views.remove(b);
+            boolean updated = b.updateBook(title, author, copies);
+            searchIndex.add(b);
+            rankedIndex.add(b);
+            views.add(b);
+            if (!updated) {
+                return Outcome.COPY_ON_LOAN;
+            }
+            catalogVersion++;
+            List<Journal.Writer> changes = new ArrayList<>();
+            changes.add(out -> {
+                out.writeByte(OP_UPDATE);
+                out.writeInt(id);
+                out.writeUTF(title);
+                out.writeUTF(author);
+                out.writeInt(copies);
+            });
+            allocateHolds(b, LocalDate.now(), changes);
+            seq = logChanges(changes);
+            invalidateViews(b);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        afterChange(seq);
+        return Outcome.OK;
+    }
+
+    public Outcome deleteBook(int id) {
+        long start = System.nanoTime();
+        try {
+            return doDeleteBook(id);
+        } finally {
+            deleteTimer.record(start);
+        }
+    }
+
+    private Outcome doDeleteBook(int id) {
+        long seq = -1;
+        catalogLock.writeLock().lock();
+        try {
+            Book removed = findBook(id);
+            if (removed == null) {
+                return Outcome.BOOK_NOT_FOUND;
+            }
+            removeBook(removed);
+            searchIndex.remove(removed);
+            rankedIndex.remove(removed);
+            views.remove(removed);
+            for (BorrowRecord br : removed.getBorrowRecords()) {
+                unindexLoan(id, br);
+            }
+            holds.removeBook(id);
+            seq = logChange(out -> {
+                out.writeByte(OP_DELETE);
+                out.writeInt(id);
+            });
+            invalidateViews(removed);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        afterChange(seq);
+        return Outcome.OK;
+    }
+
+    /**
+     * Lends one copy of bookId: OK with the new loan, BOOK_NOT_FOUND or
+     * NO_COPIES. A copy set aside for this borrower's hold is the one lent.
+     */
+    public Circulation.Result issueCopy(int bookId, String borrowerId) {
+        long start = System.nanoTime();
+        try {
+            return doIssueCopy(bookId, borrowerId);
+        } finally {
+            issueTimer.record(start);
+        }
+    }
+
+    private Circulation.Result doIssueCopy(int bookId, String borrowerId) {
+        BorrowRecord record = new BorrowRecord(borrowerId);
+        boolean issued;
+        long seq = -1;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null) {
+                return Circulation.Result.failed(Outcome.BOOK_NOT_FOUND);
+            }
+            synchronized (lockFor(bookId)) {
+                List<Journal.Writer> changes = new ArrayList<>(2);
+                issued = issueTo(b, record, changes);
+                if (issued) {
+                    indexLoan(bookId, record);
+                    seq = logChanges(changes);
+                    invalidateViews(bookId, borrowerId);
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        if (!issued) {
+            return Circulation.Result.failed(Outcome.NO_COPIES);
+        }
+        afterChange(seq);
+        return Circulation.Result.issued(record);
+    }
+
+    /** Takes back borrowerId's copy of bookId: OK with the loan and fine, BOOK_NOT_FOUND or NOT_BORROWED. */
+    public Circulation.Result returnCopy(int bookId, String borrowerId) {
+        long start = System.nanoTime();
+        try {
+            return doReturnCopy(bookId, borrowerId);
+        } finally {
+            returnTimer.record(start);
+        }
+    }
+
+    private Circulation.Result doReturnCopy(int bookId, String borrowerId) {
+        BorrowRecord record;
+        Holds.Hold allocated = null;
+        long seq = -1;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null) {
+                return Circulation.Result.failed(Outcome.BOOK_NOT_FOUND);
+            }
+            synchronized (lockFor(bookId)) {
+                record = b.removeLoan(borrowerId);
+                if (record != null) {
+                    unindexLoan(bookId, record);
+                    List<Journal.Writer> changes = new ArrayList<>(2);
+                    changes.add(out -> writeReturn(out, bookId, record));
+                    allocated = allocateHolds(b, LocalDate.now(), changes);
+                    seq = logChanges(changes);
+                    invalidateViews(bookId, borrowerId);
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        if (record == null) {
+            return Circulation.Result.failed(Outcome.NOT_BORROWED);
+        }
+        afterChange(seq);
+        LocalDate today = LocalDate.now();
+        long fine = Book.fineFor(record, today);
+        history.append(bookId, record, today, fine);
+        return Circulation.Result.returned(record, fine, allocated);
+    }
+
+    /**
+     * Lends the copy with this barcode, as scanned at the desk: OK with the new
+     * loan, COPY_NOT_FOUND or COPY_ON_LOAN (also when it is set aside for
+     * someone else's hold).
+     */
+    public Circulation.Result issueBarcode(long barcode, String borrowerId) {
+        long start = System.nanoTime();
+        try {
+            return doIssueBarcode(barcode, borrowerId);
+        } finally {
+            issueTimer.record(start);
+        }
+    }
+
+    private Circulation.Result doIssueBarcode(long barcode, String borrowerId) {
+        int bookId = Book.bookIdOf(barcode);
+        BorrowRecord record = new BorrowRecord(borrowerId);
+        record.setCopy(Book.copyOf(barcode));
+        long seq;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null || !b.hasCopy(record.getCopy())) {
+                return Circulation.Result.failed(Outcome.COPY_NOT_FOUND);
+            }
+            synchronized (lockFor(bookId)) {
+                List<Journal.Writer> changes = new ArrayList<>(2);
+                if (!issueTo(b, record, changes)) {
+                    return Circulation.Result.failed(Outcome.COPY_ON_LOAN);
+                }
+                indexLoan(bookId, record);
+                seq = logChanges(changes);
+                invalidateViews(bookId, borrowerId);
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        afterChange(seq);
+        return Circulation.Result.issued(record);
+    }
+
+    /** Takes back the copy with this barcode, whoever holds it: OK with the loan and fine, COPY_NOT_FOUND or NOT_BORROWED. */
+    public Circulation.Result returnBarcode(long barcode) {
+        long start = System.nanoTime();
+        try {
+            return doReturnBarcode(barcode);
+        } finally {
+            returnTimer.record(start);
+        }
+    }
+
+    private Circulation.Result doReturnBarcode(long barcode) {
+        int bookId = Book.bookIdOf(barcode);
+        int copy = Book.copyOf(barcode);
+        BorrowRecord record;
+        Holds.Hold allocated;
+        long seq;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null || !b.hasCopy(copy)) {
+                return Circulation.Result.failed(Outcome.COPY_NOT_FOUND);
+            }
+            synchronized (lockFor(bookId)) {
+                record = b.returnCopy(copy);
+                if (record == null) {
+                    return Circulation.Result.failed(Outcome.NOT_BORROWED);
+                }
+                unindexLoan(bookId, record);
+                List<Journal.Writer> changes = new ArrayList<>(2);
+                changes.add(out -> writeReturn(out, bookId, record));
+                allocated = allocateHolds(b, LocalDate.now(), changes);
+                seq = logChanges(changes);
+                invalidateViews(bookId, record.getBorrowerId());
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        afterChange(seq);
+        LocalDate today = LocalDate.now();
+        long fine = Book.fineFor(record, today);
+        history.append(bookId, record, today, fine);
+        return Circulation.Result.returned(record, fine, allocated);
+    }
+
+    /*
+     * Applies a batch of issues and returns all-or-nothing. Items run in
+     * order, so a batch may return a copy and re-issue it. If any item fails
+     * every applied item is undone, the failing ones keep their outcome and
+     * the rest are reported ROLLED_BACK. A committed batch is one journal
+     * entry, so it costs one flush and replays atomically.
+     *
+     * Copies returned in a committed batch go to waiting holds as usual, but
+     * issues in a batch do not collect a copy set aside for the borrower.
+     */
+    public List<Circulation.Result> circulate(List<Circulation.Op> ops) {
+        long start = System.nanoTime();
+        try {
+            return doCirculate(ops);
+        } finally {
+            circulateTimer.record(start);
+        }
+    }
+
+    private List<Circulation.Result> doCirculate(List<Circulation.Op> ops) {
+        List<Circulation.Result> results = new ArrayList<>(ops.size());
+        LocalDate today = LocalDate.now();
+        boolean failed = false;
+        long seq = -1;
+        catalogLock.writeLock().lock();
+        try {
+            for (Circulation.Op op : ops) {
+                Book b = findBook(op.bookId);
+                Circulation.Result r;
+                if (b == null) {
+                    r = Circulation.Result.failed(Outcome.BOOK_NOT_FOUND);
+                } else if (op.kind == Circulation.Kind.ISSUE) {
+                    BorrowRecord record = new BorrowRecord(op.borrowerId);
+                    r = b.issueBook(record) ? Circulation.Result.issued(record)
+                            : Circulation.Result.failed(Outcome.NO_COPIES);
+                } else {
+                    BorrowRecord record = b.removeLoan(op.borrowerId);
+                    r = record != null ? Circulation.Result.returned(record, Book.fineFor(record, today))
+                            : Circulation.Result.failed(Outcome.NOT_BORROWED);
+                }
+                failed |= !r.isOk();
+                results.add(r);
+            }
+
+            if (failed) {
+                for (int i = results.size() - 1; i >= 0; i--) {
+                    Circulation.Result r = results.get(i);
+                    if (!r.isOk()) {
+                        continue;
+                    }
+                    Circulation.Op op = ops.get(i);
+                    Book b = findBook(op.bookId);
+                    if (op.kind == Circulation.Kind.ISSUE) {
+                        b.removeLoan(r.record);
+                    } else {
+                        b.issueBook(r.record);
+                    }
+                    results.set(i, Circulation.Result.failed(Outcome.ROLLED_BACK));
+                }
+                return results;
+            }
+
+            List<Journal.Writer> changes = new ArrayList<>(results.size());
+            for (int i = 0; i < results.size(); i++) {
+                Circulation.Op op = ops.get(i);
+                BorrowRecord record = results.get(i).record;
+                if (op.kind == Circulation.Kind.ISSUE) {
+                    indexLoan(op.bookId, record);
+                    changes.add(out -> writeIssue(out, op.bookId, record));
+                } else {
+                    unindexLoan(op.bookId, record);
+                    changes.add(out -> writeReturn(out, op.bookId, record));
+                }
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Circulation.Result r = results.get(i);
+                if (ops.get(i).kind == Circulation.Kind.RETURN) {
+                    Holds.Hold allocated = allocateHolds(findBook(ops.get(i).bookId), today, changes);
+                    if (allocated != null) {
+                        results.set(i, Circulation.Result.returned(r.record, r.fine, allocated));
+                    }
+                }
+            }
+            if (!changes.isEmpty()) {
+                seq = logChanges(changes);
+            }
+            for (Circulation.Op op : ops) {
+                invalidateViews(op.bookId, op.borrowerId);
+            }
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        afterChange(seq);
+        for (int i = 0; i < results.size(); i++) {
+            if (ops.get(i).kind == Circulation.Kind.RETURN) {
+                history.append(ops.get(i).bookId, results.get(i).record, today, results.get(i).fine);
+            }
+        }
+        return results;
+    }
+
+    /*
+     * Lends b to record's borrower, adding the journal entries to changes.
+     * Caller holds the book's stripe. A copy set aside for the borrower is
+     * collected; any other hold they have on the book is dropped once they
+     * have a copy.
+     */
+    private boolean issueTo(Book b, BorrowRecord record, List<Journal.Writer> changes) {
+        Holds.Hold h = holds.find(b.getId(), record.getBorrowerId());
+        if (h != null && h.isReady() && (record.getCopy() == 0 || record.getCopy() == h.copy)) {
+            Holds.Hold collected = h;
+            holds.remove(collected);
+            b.unreserve(collected.copy);
+            record.setCopy(collected.copy);
+            changes.add(out -> writeHoldCancel(out, collected));
+            h = null;
+        }
+        if (!b.issueBook(record)) {
+            return false;
+        }
+        changes.add(out -> writeIssue(out, b.getId(), record));
+        if (h != null) {
+            dropHold(b, h, record.getIssueDate(), changes);
+        }
+        return true;
+    }
+
+    // Sets copies on b's shelf aside for its waiting holds, first in line
+    // first. Returns the first hold served, or null. Caller holds the stripe.
+    private Holds.Hold allocateHolds(Book b, LocalDate today, List<Journal.Writer> changes) {
+        Holds.Hold first = null;
+        Holds.Hold h;
+        while (b.getAvailableCopies() > 0 && (h = holds.nextWaiting(b.getId())) != null) {
+            Holds.Hold served = h;
+            int copy = b.firstOnShelf();
+            LocalDate until = today.plusDays(Holds.PICKUP_DAYS);
+            b.reserve(copy);
+            holds.ready(served, copy, until);
+            changes.add(out -> writeHoldReady(out, served, copy, until));
+            if (first == null) {
+                first = served;
+            }
+        }
+        return first;
+    }
+
+    // Removes a hold; a copy set aside for it goes to the next in line or the shelf.
+    private void dropHold(Book b, Holds.Hold h, LocalDate today, List<Journal.Writer> changes) {
+        boolean wasReady = h.isReady();
+        holds.remove(h);
+        changes.add(out -> writeHoldCancel(out, h));
+        if (wasReady) {
+            b.unreserve(h.copy);
+            allocateHolds(b, today, changes);
+        }
+    }
+
+    /**
+     * Puts borrowerId in line for the next copy of bookId: OK,
+     * BOOK_NOT_FOUND, COPIES_AVAILABLE (issue one instead) or ALREADY_HELD.
+     */
+    public Outcome placeHold(int bookId, String borrowerId) {
+        long start = System.nanoTime();
+        try {
+            return doPlaceHold(bookId, borrowerId);
+        } finally {
+            holdTimer.record(start);
+        }
+    }
+
+    private Outcome doPlaceHold(int bookId, String borrowerId) {
+        expireHolds();
+        long seq;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null) {
+                return Outcome.BOOK_NOT_FOUND;
+            }
+            synchronized (lockFor(bookId)) {
+                if (b.getAvailableCopies() > 0) {
+                    return Outcome.COPIES_AVAILABLE;
+                }
+                Holds.Hold h = holds.place(bookId, borrowerId, LocalDate.now());
+                if (h == null) {
+                    return Outcome.ALREADY_HELD;
+                }
+                seq = logChange(out -> writeHold(out, h));
+                invalidateViews(bookId, null);
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        afterChange(seq);
+        return Outcome.OK;
+    }
+
+    /** Withdraws borrowerId's hold on bookId: OK, BOOK_NOT_FOUND or NO_HOLD. */
+    public Outcome cancelHold(int bookId, String borrowerId) {
+        long seq;
+        catalogLock.readLock().lock();
+        try {
+            Book b = findBook(bookId);
+            if (b == null) {
+                return Outcome.BOOK_NOT_FOUND;
+            }
+            synchronized (lockFor(bookId)) {
+                Holds.Hold h = holds.find(bookId, borrowerId);
+                if (h == null) {
+                    return Outcome.NO_HOLD;
+                }
+                List<Journal.Writer> changes = new ArrayList<>(2);
+                dropHold(b, h, LocalDate.now(), changes);
+                seq = logChanges(changes);
+                invalidateViews(bookId, null);
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        afterChange(seq);
+        return Outcome.OK;
+    }
+
+    /** borrowerId's holds with their place in line, in the order placed. */
+    public List<Holds.Status> holdsOf(String borrowerId) {
+        expireHolds();
+        List<Holds.Status> result = new ArrayList<>();
+        catalogLock.readLock().lock();
+        try {
+            for (Holds.Hold h : holds.holdsOf(borrowerId)) {
+                synchronized (lockFor(h.bookId)) {
+                    result.add(holds.status(h));
+                }
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /** Holds waiting for bookId, not counting those with a copy set aside. */
+    public int holdQueueLength(int bookId) {
+        catalogLock.readLock().lock();
+        try {
+            synchronized (lockFor(bookId)) {
+                return holds.waitingCount(bookId);
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Releases copies whose pickup window has closed to the next in line or
+     * the shelf. The timer wheel hands over only the holds due, so this is
+     * cheap enough to run before every hold lookup as well as nightly.
+     */
+    private void expireHolds() {
+        LocalDate today = LocalDate.now();
+        for (Holds.Hold h : holds.expired(today)) {
+            long seq = -1;
+            catalogLock.readLock().lock();
+            try {
+                Book b = findBook(h.bookId);
+                synchronized (lockFor(h.bookId)) {
+                    // Skip holds collected or cancelled since the timer fired.
+                    if (b != null && h.isReady() && holds.find(h.bookId, h.borrowerId) == h) {
+                        List<Journal.Writer> changes = new ArrayList<>(2);
+                        dropHold(b, h, today, changes);
+                        seq = logChanges(changes);
+                        invalidateViews(h.bookId, null);
+                    }
+                }
+            } finally {
+                catalogLock.readLock().unlock();
+            }
+            afterChange(seq);
+        }
+    }
+
+    /** The n most-borrowed books over all returned loans. */
+    public List<HistoryArchive.Count> mostBorrowed(int n) {
+        return history.mostBorrowed(n);
+    }
+
+    /** borrowerId's returned loans, oldest first. */
+    public List<HistoryArchive.Entry> historyOf(String borrowerId) {
+        return history.historyOf(borrowerId);
+    }
+
+    /** Fines charged on returns, per month, in paise. */
+    public SortedMap<YearMonth, Long> monthlyFines() {
+        return history.monthlyFines();
+    }
+
+    /** Returned loans missing from the history because their rows could not be written. */
+    public long lostHistoryRows() {
+        return history.lostRows();
+    }
+
+    /** Why the last history row was lost, or null. */
+    public IOException historyFailure() {
+        return history.lastFailure();
+    }
+
+    /** Loans due before today, most overdue first. Brings the fine totals up to date. */
+    public List<LoanIndex.Loan> overdueLoans() {
+        LocalDate today = LocalDate.now();
+        dueIndex.sweep(today);
+        return dueIndex.overdue(today);
+    }
+
+    public int getOverdueCount() {
+        return dueIndex.getOverdueCount();
+    }
+
+    /** Fines accrued on loans still out, in paise, as of the last sweep. */
+    public long getAccruedFines() {
+        return dueIndex.getAccruedFines();
+    }
+
+    /** Runs the fine sweep and hold expiry now and then shortly after every midnight. */
+    public synchronized void startFineSweeps() {
+        if (fineSweeper != null) {
+            return;
+        }
+        fineSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fine-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        dueIndex.sweep(LocalDate.now());
+        long untilMidnight = Duration.between(LocalDateTime.now(),
+                LocalDate.now().plusDays(1).atStartOfDay()).toMillis();
+        fineSweeper.scheduleAtFixedRate(() -> {
+            dueIndex.sweep(LocalDate.now());
+            expireHolds();
+        }, untilMidnight + 1000, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Callers hold the catalog lock (read or write) and, for loans, the book's
+     * stripe, so the entry is only queued here; afterChange waits for it
+     * to reach the disk once the locks are released, which lets concurrent
+     * changes share one fsync.
+     */
+    private long logChange(Journal.Writer change) {
+        return journal.enqueue(change);
+    }
+
+    // Several changes that must replay together go out as one OP_BATCH entry.
+    private long logChanges(List<Journal.Writer> changes) {
+        if (changes.size() == 1) {
+            return logChange(changes.get(0));
+        }
+        return logChange(out -> {
+            out.writeByte(OP_BATCH);
+            out.writeInt(changes.size());
+            for (Journal.Writer change : changes) {
+                change.write(out);
+            }
+        });
+    }
+
+    private static void writeAdd(DataOutputStream out, Book b) throws IOException {
+        out.writeByte(OP_ADD);
+        out.writeInt(b.getId());
+        out.writeUTF(b.getTitle());
+        out.writeUTF(b.getAuthor());
+        out.writeInt(b.getTotalCopies());
+    }
+
+    private static void writeIssue(DataOutputStream out, int bookId, BorrowRecord record) throws IOException {
+        out.writeByte(OP_ISSUE);
+        out.writeInt(bookId);
+        out.writeShort(record.getCopy());
+        out.writeUTF(record.getBorrowerId());
+        out.writeLong(record.getIssueDate().toEpochDay());
+        out.writeLong(record.getDueDate().toEpochDay());
+    }
+
+    private static void writeReturn(DataOutputStream out, int bookId, BorrowRecord record) throws IOException {
+        out.writeByte(OP_RETURN);
+        out.writeInt(bookId);
+        out.writeShort(record.getCopy());
+    }
+
+    private static void writeHold(DataOutputStream out, Holds.Hold h) throws IOException {
+        out.writeByte(OP_HOLD);
+        out.writeInt(h.bookId);
+        out.writeUTF(h.borrowerId);
+        out.writeLong(h.placed.toEpochDay());
+    }
+
+    private static void writeHoldCancel(DataOutputStream out, Holds.Hold h) throws IOException {
+        out.writeByte(OP_HOLD_CANCEL);
+        out.writeInt(h.bookId);
+        out.writeUTF(h.borrowerId);
+    }
+
+    private static void writeHoldReady(DataOutputStream out, Holds.Hold h, int copy, LocalDate readyUntil)
+            throws IOException {
+        out.writeByte(OP_HOLD_READY);
+        out.writeInt(h.bookId);
+        out.writeUTF(h.borrowerId);
+        out.writeShort(copy);
+        out.writeLong(readyUntil.toEpochDay());
+    }
+
+    // Must be called without holding the read lock: compaction needs the write lock.
+    private void afterChange(long seq) {
+        journal.awaitDurable(seq);
+        if (!compactor.due()) {
+            return;
+        }
+        catalogLock.writeLock().lock();
+        try {
+            compactor.compactIfDue();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    private void applyChange(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        if (op == OP_BATCH) {
+            for (int n = in.readInt(); n > 0; n--) {
+                applyChange(in);
+            }
+            return;
+        }
+        int id = in.readInt();
+        Book b = findBook(id);
+        switch (op) {
+            case OP_ADD:
+                Book added = new Book(id, in.readUTF(), in.readUTF(), in.readInt(),
+                        Collections.<BorrowRecord>emptyList());
+                if (b == null) {
+                    putBook(added);
+                }
+                break;
+            case OP_UPDATE:
+                String title = in.readUTF();
+                String author = in.readUTF();
+                int copies = in.readInt();
+                if (b != null) {
+                    b.updateBook(title, author, copies);
+                }
+                break;
+            case OP_DELETE:
+                if (b != null) {
+                    removeBook(b);
+                    holds.removeBook(id);
+                }
+                break;
+            case OP_ISSUE:
+                int copy = in.readShort() & 0xFFFF;
+                String borrowerId = in.readUTF();
+                LocalDate issued = LocalDate.ofEpochDay(in.readLong());
+                LocalDate due = LocalDate.ofEpochDay(in.readLong());
+                if (b != null) {
+                    b.issueBook(new BorrowRecord(borrowerId, issued, due, copy));
+                }
+                break;
+            case OP_RETURN:
+                copy = in.readShort() & 0xFFFF;
+                if (b != null) {
+                    b.returnCopy(copy);
+                }
+                break;
+            case OP_HOLD:
+                borrowerId = in.readUTF();
+                LocalDate placed = LocalDate.ofEpochDay(in.readLong());
+                if (b != null) {
+                    holds.place(id, borrowerId, placed);
+                }
+                break;
+            case OP_HOLD_CANCEL:
+                Holds.Hold h = holds.find(id, in.readUTF());
+                if (h != null) {
+                    holds.remove(h);
+                    if (h.isReady() && b != null) {
+                        b.unreserve(h.copy);
+                    }
+                }
+                break;
+            case OP_HOLD_READY:
+                h = holds.find(id, in.readUTF());
+                copy = in.readShort() & 0xFFFF;
+                LocalDate until = LocalDate.ofEpochDay(in.readLong());
+                if (h != null && !h.isReady() && b != null && b.reserve(copy)) {
+                    holds.ready(h, copy, until);
+                }
+                break;
+            default:
+                throw new IOException("Unknown journal op " + op);
+        }
+    }
+
+    /**
+     * Folds the journal into a fresh library.bin snapshot and forces the
+     * history tail; UncheckedIOException if either cannot be written.
+     */
+    public void checkpoint() {
+        catalogLock.writeLock().lock();
+        try {
+            if (journal.getPending() > 0) {
+                compactor.saveNow();
+            }
+        } catch (IOException e) {
+            throw BinaryFile.unwritable(dataFile, e);
+        } finally {
+            journal.close();
+            catalogLock.writeLock().unlock();
+        }
+        history.flush();
+    }
+
+    // Written beside the live file and renamed over it, so a mapping of the
+    // previous snapshot stays valid until it is replaced and a crash mid-save
+    // leaves the old snapshot plus its journal intact.
+    private void saveToFile() throws IOException {
+        long start = System.nanoTime();
+        File tmp = BinaryFile.tempFor(dataFile);
+        try {
+            writeSnapshot(tmp, currentSnapshot(), holds.all(), journal.getLastSeq());
+            metrics.snapshotBytes.add(tmp.length());
+            BinaryFile.replace(tmp, dataFile);
+            if (lazy) {
+                mapped = MappedCatalog.open(dataFile, FILE_MAGIC);
+                deletedSlots = new BitSet();
+                for (Book b : books) {
+                    if (b != null) {
+                        b.setSlot(-1); // now found through the mapping
+                    }
+                }
+                books = new ArrayList<>();
+                removedBooks = 0;
+                catalogVersion++;
+            }
+        } finally {
+            saveTimer.record(start);
+        }
+        journal.reset();
+    }
+
+    static void writeSnapshot(File file, Iterable<Book> books, Collection<Holds.Hold> holds, long journalSeq)
+            throws IOException {
+        MappedCatalog.write(file, FILE_MAGIC, books, holds, journalSeq);
+    }
+
+    private long readSnapshot() throws IOException {
+        MappedCatalog catalog = MappedCatalog.open(dataFile, FILE_MAGIC);
+        snapshotHolds = catalog.holds();
+        if (lazy) {
+            mapped = catalog;
+            deletedSlots = new BitSet();
+            books = new ArrayList<>();
+        } else {
+            books = new ArrayList<>(catalog.size());
+            for (int slot = 0; slot < catalog.size(); slot++) {
+                books.add(catalog.materialize(slot));
+            }
+        }
+        return catalog.getJournalSeq();
+    }
+
+    // A copy set aside in the snapshot goes back to waiting if it can no
+    // longer be reserved (say the snapshot was edited by hand).
+    private void restoreHolds() {
+        holds.clear();
+        for (Holds.Hold h : snapshotHolds) {
+            Book b = findBook(h.bookId);
+            if (b == null) {
+                continue;
+            }
+            if (h.isReady() && !b.reserve(h.copy)) {
+                h.copy = 0;
+                h.readyUntil = null;
+            }
+            holds.restore(h);
+        }
+        snapshotHolds = Collections.emptyList();
+    }
+
+    private void loadFromFile() {
+        long start = System.nanoTime();
+        long snapshotSeq = 0;
+        boolean migrate = !dataFile.exists() && legacyFile.exists();
+        BinaryFile.tempFor(dataFile).delete(); // left by a crash mid-save
+        if (migrate) {
+            // One-time upgrade from the Java-serialized library.dat.
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile))) {
+                books = (ArrayList<Book>) ois.readObject();
+                snapshotSeq = Journal.readSnapshotSeq(ois);
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(legacyFile, e);
+            }
+        } else if (dataFile.exists()) {
+            try {
+                snapshotSeq = readSnapshot();
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(dataFile, e);
+            }
+        }
+        rebuildIndex();
+        restoreHolds();
+        journal.replay(snapshotSeq, this::applyChange);
+        rebuildSecondaryIndexes();
+        loadTimer.record(start);
+        if (migrate) {
+            // The legacy file is only set aside once its replacement is on disk.
+            try {
+                saveToFile();
+            } catch (IOException e) {
+                throw BinaryFile.unwritable(dataFile, e);
+            }
+            legacyFile.renameTo(new File(legacyFile.getPath() + ".bak"));
+        } else if (lazy && mapped == null && bookCount() > 0) {
+            try {
+                compactor.saveNow(); // until a snapshot exists lazy mode just runs unmapped
+            } catch (IOException e) {
+                // recorded; the next compaction tries again
+            }
+        } else {
+            compactor.compactIfDue();
+        }
+    }
+}
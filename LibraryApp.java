@@ -1,458 +1,76 @@
+import javax.management.JMException;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 
-/* ---------------- USER CLASS ---------------- */
-class User implements Serializable {
-    private String username;
-    private String password;
-    private String role; // "ADMIN" or "USER"
-
-    public User(String username, String password, String role) {
-        this.username = username;
-        this.password = password;
-        this.role = role;
-    }
-
-    public boolean login(String u, String p) {
-        return username.equals(u) && password.equals(p);
-    }
-
-    public String getRole() {
-        return role;
-    }
-
-    public String getUsername() {
-        return username;
-    }
-}
-
-/* ---------------- BORROWER CLASS ---------------- */
-class Borrower implements Serializable {
-    private String id; // 3-digit ID
-    private String name;
-
-    public Borrower(String id, String name) {
-        this.id = id;
-        this.name = name;
-    }
-
-    public String getId() {
-        return id;
-    }
-
-    public String getName() {
-        return name;
-    }
-
-    @Override
-    public String toString() {
-        return id + " - " + name;
-    }
-}
-
-/* ---------------- BORROW RECORD ---------------- */
-class BorrowRecord implements Serializable {
-    String borrowerId;
-    LocalDate issueDate;
-    LocalDate dueDate;
-
-    public BorrowRecord(String borrowerId) {
-        this.borrowerId = borrowerId;
-        this.issueDate = LocalDate.now();
-        this.dueDate = issueDate.plusDays(14);
-    }
-
-    public String getBorrowerId() {
-        return borrowerId;
-    }
-
-    public LocalDate getIssueDate() {
-        return issueDate;
-    }
-
-    public LocalDate getDueDate() {
-        return dueDate;
-    }
-
-    @Override
-    public String toString() {
-        return borrowerId + " (Issued: " + issueDate + ", Due: " + dueDate + ")";
-    }
-}
-
-/* ---------------- BOOK CLASS ---------------- */
-class Book implements Serializable {
-    private int id;
-    private String title;
-    private String author;
-    private int totalCopies;
-    private int availableCopies;
-    private ArrayList<BorrowRecord> borrowRecords = new ArrayList<>();
-
-    public Book(int id, String title, String author, int copies) {
-        this.id = id;
-        this.title = title;
-        this.author = author;
-        this.totalCopies = copies;
-        this.availableCopies = copies;
-    }
-
-    public int getId() {
-        return id;
-    }
-
-    public String getTitle() {
-        return title;
-    }
-
-    public String getAuthor() {
-        return author;
-    }
-
-    public int getAvailableCopies() {
-        return availableCopies;
-    }
-
-    public boolean issueBook(String borrowerId) {
-        if (availableCopies > 0) {
-            availableCopies--;
-            borrowRecords.add(new BorrowRecord(borrowerId));
-            return true;
-        }
-        return false;
-    }
-
-    public double returnBook(String borrowerId) {
-        for (int i = 0; i < borrowRecords.size(); i++) {
-            if (borrowRecords.get(i).getBorrowerId().equals(borrowerId)) {
-                BorrowRecord record = borrowRecords.remove(i);
-                availableCopies++;
-                double fine = 0.0;
-
-                if (LocalDate.now().isAfter(record.getDueDate())) {
-                    long daysLate = ChronoUnit.DAYS.between(record.getDueDate(), LocalDate.now());
-                    fine = daysLate * 5.0; // ₹5 per day
-                    System.out.println("→ Book returned LATE by " + daysLate + " day(s). Fine: ₹" + fine);
-                } else {
-                    System.out.println("→ Book returned on time. No fine.");
-                }
-                return fine;
-            }
-        }
-        return -1; // Indicates not borrowed by this user
-    }
-
-    public void updateBook(String title, String author, int copies) {
-        this.title = title;
-        this.author = author;
-        int currentlyBorrowed = borrowRecords.size();
-        this.totalCopies = copies;
-        this.availableCopies = copies - currentlyBorrowed;
-    }
-
-    public void display() {
-        System.out.printf("ID: %04d | %-30s | %-25s | Avail: %2d/%2d%n",
-                id, title, author, availableCopies, totalCopies);
-    }
-
-    public void showDetails(Map<String, Borrower> borrowerMap) {
-        display();
-        if (borrowRecords.isEmpty()) {
-            System.out.println("   Not currently borrowed.");
-        } else {
-            System.out.println("   Borrowed records:");
-            for (BorrowRecord br : borrowRecords) {
-                Borrower borrower = borrowerMap.get(br.getBorrowerId());
-                String borrowerInfo = (borrower != null) ? borrower.toString() : br.getBorrowerId() + " (Name unknown)";
-                System.out.println("     • " + borrowerInfo + " | " + br.issueDate + " | Due: " + br.dueDate);
-            }
-        }
-    }
-
-    public List<BorrowRecord> getBorrowRecordsForBorrower(String borrowerId) {
-        List<BorrowRecord> result = new ArrayList<>();
-        for (BorrowRecord br : borrowRecords) {
-            if (br.getBorrowerId().equals(borrowerId)) {
-                result.add(br);
-            }
-        }
-        return result;
-    }
-}
-
-/* ---------------- BORROWER MANAGER ---------------- */
-class BorrowerManager {
-    private Map<String, Borrower> borrowers = new HashMap<>();
-    private final String BORROWERS_FILE = "borrowers.dat";
-
-    public BorrowerManager() {
-        loadBorrowers();
-    }
-
-    private void loadBorrowers() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BORROWERS_FILE))) {
-            borrowers = (Map<String, Borrower>) ois.readObject();
-        } catch (Exception e) {
-            borrowers = new HashMap<>();
-        }
-    }
-
-    private void saveBorrowers() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BORROWERS_FILE))) {
-            oos.writeObject(borrowers);
-        } catch (Exception e) {
-            System.out.println("Error saving borrowers: " + e.getMessage());
-        }
-    }
-
-    public Borrower getOrCreateBorrower(String id, Scanner sc) {
-        if (!borrowers.containsKey(id)) {
-            System.out.print("New borrower! Enter name for ID " + id + ": ");
-            String name = sc.nextLine().trim();
-            Borrower newBorrower = new Borrower(id, name);
-            borrowers.put(id, newBorrower);
-            saveBorrowers();
-            System.out.println("Borrower added: " + newBorrower);
-        }
-        return borrowers.get(id);
-    }
-
-    public Borrower getBorrower(String id) {
-        return borrowers.get(id);
-    }
-
-    public Map<String, Borrower> getAllBorrowers() {
-        return borrowers;
-    }
-}
-
-/* ---------------- LIBRARY CLASS ---------------- */
-class Library implements Serializable {
-    private ArrayList<Book> books = new ArrayList<>();
-    private final String FILE_NAME = "library.dat";
-
-    public Library() {
-        loadFromFile();
-    }
-
-    public void addBook(Book b) {
-        books.add(b);
-        saveToFile();
-        System.out.println("→ Book added successfully.");
-    }
-
-    public void viewBooks() {
-        if (books.isEmpty()) {
-            System.out.println("No books available.");
-            return;
-        }
-        System.out.println("\n===== Library Books =====");
-        for (Book b : books) {
-            b.display();
-        }
-    }
-
-    public void searchBooks(String keyword) {
-        keyword = keyword.trim().toLowerCase();
-        if (keyword.isEmpty()) {
-            System.out.println("Enter search term.");
-            return;
-        }
-
-        List<Book> results = new ArrayList<>();
-        for (Book b : books) {
-            if (b.getTitle().toLowerCase().contains(keyword) ||
-                    b.getAuthor().toLowerCase().contains(keyword)) {
-                results.add(b);
-            }
-        }
-
-        if (results.isEmpty()) {
-            System.out.println("No matches for '" + keyword + "'.");
-        } else {
-            System.out.println("\nResults for '" + keyword + "':");
-            for (Book b : results) {
-                b.display();
-            }
-        }
-    }
-
-    public void viewBookDetails(int id, Map<String, Borrower> borrowerMap) {
-        for (Book b : books) {
-            if (b.getId() == id) {
-                b.showDetails(borrowerMap);
-                return;
-            }
-        }
-        System.out.println("Book ID " + id + " not found.");
-    }
-
-    public void updateBook(int id, String title, String author, int copies) {
-        for (Book b : books) {
-            if (b.getId() == id) {
-                b.updateBook(title, author, copies);
-                saveToFile();
-                System.out.println("→ Book updated.");
-                return;
-            }
-        }
-        System.out.println("Book not found.");
-    }
-
-    public void deleteBook(int id) {
-        boolean removed = books.removeIf(b -> b.getId() == id);
-        if (removed) {
-            saveToFile();
-            System.out.println("→ Book deleted.");
-        } else {
-            System.out.println("Book not found.");
-        }
-    }
-
-    public void issueBook(int bookId, String borrowerId, BorrowerManager borrowerManager, Scanner sc) {
-        borrowerManager.getOrCreateBorrower(borrowerId, sc);
-        for (Book b : books) {
-            if (b.getId() == bookId) {
-                if (b.issueBook(borrowerId)) {
-                    saveToFile();
-                    System.out.println("→ Issued successfully. Due: " + LocalDate.now().plusDays(14));
-                } else {
-                    System.out.println("No copies available.");
-                }
-                return;
+/* ---------------- MAIN APPLICATION ---------------- */
+public class LibraryApp {
+    public static void main(String[] args) throws IOException {
+        // --lazy keeps the catalog memory-mapped instead of loading it all.
+        // --branch NAME (repeatable) runs branch-sharded; the first is the one served.
+        // --bind ADDRESS exposes the server beyond this machine (default: loopback only).
+        boolean lazy = false;
+        int serverPort = -1;
+        String bindAddress = null;
+        String importPath = null;
+        List<String> branches = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--lazy")) {
+                lazy = true;
+            } else if (args[i].equals("--branch") && i + 1 < args.length) {
+                branches.add(args[++i].toLowerCase());
+            } else if (args[i].equals("--import") && i + 1 < args.length) {
+                importPath = args[++i];
+            } else if (args[i].equals("--server")) {
+                serverPort = i + 1 < args.length && args[i + 1].matches("\\d+") ? Integer.parseInt(args[++i]) : 8080;
+            } else if (args[i].equals("--bind") && i + 1 < args.length) {
+                bindAddress = args[++i];
             }
         }
-        System.out.println("Book not found.");
-    }
-
-    public void returnBook(int bookId, String borrowerId) {
-        for (Book b : books) {
-            if (b.getId() == bookId) {
-                double fine = b.returnBook(borrowerId);
-                if (fine >= 0) {
-                    saveToFile();
-                    System.out.println("→ Returned successfully.");
-                } else {
-                    System.out.println("This ID did not borrow this book.");
-                }
+        for (String name : branches) {
+            if (!BranchNetwork.validName(name)) {
+                System.out.println("Invalid branch name '" + name + "': use letters, digits or '-'.");
                 return;
             }
         }
-        System.out.println("Book not found.");
-    }
-
-    public void showBooksBorrowedBy(String borrowerId, Map<String, Borrower> borrowerMap) {
-        System.out.println("\nBooks borrowed by "
-                + borrowerMap.getOrDefault(borrowerId, new Borrower(borrowerId, "Unknown")).toString() + ":");
-        boolean foundAny = false;
-
-        for (Book b : books) {
-            List<BorrowRecord> records = b.getBorrowRecordsForBorrower(borrowerId);
-            if (!records.isEmpty()) {
-                foundAny = true;
-                System.out.println("  Book #" + b.getId() + " - " + b.getTitle());
-                for (BorrowRecord r : records) {
-                    System.out.println("     • Issued: " + r.getIssueDate() + " | Due: " + r.getDueDate());
-                }
-            }
-        }
-
-        if (!foundAny) {
-            System.out.println("   No books currently borrowed by this ID.");
-        }
-    }
-
-    private void saveToFile() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FILE_NAME))) {
-            oos.writeObject(books);
-        } catch (Exception e) {
-            System.out.println("Save error: " + e.getMessage());
-        }
-    }
-
-    private void loadFromFile() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(FILE_NAME))) {
-            books = (ArrayList<Book>) ois.readObject();
-        } catch (Exception e) {
-            books = new ArrayList<>();
-        }
-    }
-}
-
-/* ---------------- USER MANAGER ---------------- */
-class UserManager {
-    private ArrayList<User> users = new ArrayList<>();
-    private final String USERS_FILE = "users.dat";
-
-    public UserManager() {
-        loadUsers();
-        if (users.isEmpty()) {
-            users.add(new User("admin", "admin123", "ADMIN"));
-            saveUsers();
-        }
-    }
-
-    private void loadUsers() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(USERS_FILE))) {
-            users = (ArrayList<User>) ois.readObject();
-        } catch (Exception e) {
-            users = new ArrayList<>();
-        }
-    }
-
-    private void saveUsers() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(USERS_FILE))) {
-            oos.writeObject(users);
-        } catch (Exception e) {
-            System.out.println("Users save error: " + e.getMessage());
-        }
-    }
-
-    public User authenticate(Scanner sc) {
-        System.out.print("Username: ");
-        String username = sc.nextLine().trim();
-        System.out.print("Password: ");
-        String password = sc.nextLine().trim();
-
-        for (User u : users) {
-            if (u.login(username, password)) {
-                System.out.println("Welcome, " + username + "!");
-                return u;
-            }
+        BranchNetwork network = branches.isEmpty() ? null : new BranchNetwork(new File("."), branches, lazy);
+        if (importPath != null) {
+            Library library = network != null ? network.branch(branches.get(0)) : new Library(new File("."), lazy);
+            File importFile = new File(importPath);
+            saveAll(() -> importCatalog(library, importFile), library::checkpoint);
+            return;
         }
-        System.out.println("Invalid login.");
-        return null;
-    }
-
-    public void registerNewUser(Scanner sc) {
-        System.out.print("New username: ");
-        String username = sc.nextLine().trim();
-
-        for (User u : users) {
-            if (u.getUsername().equalsIgnoreCase(username)) {
-                System.out.println("Username already exists.");
+        if (serverPort >= 0) {
+            InetAddress address;
+            try {
+                address = bindAddress == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress);
+            } catch (UnknownHostException e) {
+                System.out.println("Unknown bind address '" + bindAddress + "'.");
                 return;
             }
+            startServer(address, serverPort, lazy, network, branches.isEmpty() ? null : branches.get(0));
+            return;
         }
 
-        System.out.print("Password: ");
-        String password = sc.nextLine().trim();
-
-        users.add(new User(username, password, "USER"));
-        saveUsers();
-        System.out.println("Registered successfully. You can now login.");
-    }
-}
-
-/* ---------------- MAIN APPLICATION ---------------- */
-public class LibraryApp {
-    public static void main(String[] args) {
         Scanner sc = new Scanner(System.in);
         UserManager userManager = new UserManager();
         BorrowerManager borrowerManager = new BorrowerManager();
-        Library library = new Library();
+        Library library;
+        String branch = null;
+        if (network != null) {
+            branch = branches.get(0);
+            library = network.branch(branch);
+            network.startFineSweeps();
+        } else {
+            library = new Library(new File("."), lazy);
+            library.startFineSweeps();
+        }
+        library.getMetrics().compaction("borrowers", borrowerManager.compaction());
+        library.getMetrics().compaction("users", userManager.compaction());
+        registerMetrics(network, library);
         User currentUser = null;
 
         System.out.println("=====================================");
@@ -470,10 +88,25 @@ public class LibraryApp {
             sc.nextLine();
 
             if (opt == 1) {
-                currentUser = userManager.authenticate(sc);
+                System.out.print("Username: ");
+                String username = sc.nextLine().trim();
+                System.out.print("Password: ");
+                String password = sc.nextLine().trim();
+                currentUser = userManager.authenticate(username, password);
+                System.out.println(currentUser != null ? "Welcome, " + username + "!" : "Invalid login.");
             } else if (opt == 2) {
-                userManager.registerNewUser(sc);
+                System.out.print("New username: ");
+                String username = sc.nextLine().trim();
+                System.out.print("Password: ");
+                String password = sc.nextLine().trim();
+                if (userManager.registerNewUser(username, password)) {
+                    System.out.println("Registered successfully. You can now login.");
+                } else {
+                    System.out.println("Username already exists.");
+                }
             } else if (opt == 3) {
+                saveAll(network != null ? network::checkpoint : library::checkpoint,
+                        borrowerManager::checkpoint, userManager::checkpoint);
                 System.out.println("Goodbye!");
                 return;
             } else {
@@ -484,7 +117,8 @@ public class LibraryApp {
         // Main menu loop
         while (true) {
             System.out.println("\n----------------------------------------");
-            System.out.println("Logged in: " + currentUser.getUsername() + " (" + currentUser.getRole() + ")");
+            System.out.println("Logged in: " + currentUser.getUsername() + " (" + currentUser.getRole() + ")"
+                    + (branch != null ? " | Branch: " + branch : ""));
             System.out.println("----------------------------------------");
 
             if (currentUser.getRole().equals("ADMIN")) {
@@ -492,15 +126,28 @@ public class LibraryApp {
             } else {
                 showUserMenu();
             }
+            if (network != null) {
+                showBranchMenu(currentUser.getRole().equals("ADMIN"));
+            }
 
             System.out.print("\nChoice: ");
             int choice = getValidInt(sc);
             sc.nextLine();
 
-            if (currentUser.getRole().equals("ADMIN")) {
-                handleAdminChoice(choice, library, borrowerManager, sc);
-            } else {
-                handleUserChoice(choice, library, borrowerManager, sc);
+            try {
+                if (network != null && choice >= 20 && choice <= 22) {
+                    String switched = handleBranchChoice(choice, network, currentUser.getRole().equals("ADMIN"), sc);
+                    if (switched != null) {
+                        branch = switched;
+                        library = network.branch(branch);
+                    }
+                } else if (currentUser.getRole().equals("ADMIN")) {
+                    handleAdminChoice(choice, library, borrowerManager, sc);
+                } else {
+                    handleUserChoice(choice, library, borrowerManager, sc);
+                }
+            } catch (UncheckedIOException e) {
+                System.out.println("Storage error: " + e.getMessage());
             }
 
             if (choice == 0) {
@@ -509,6 +156,8 @@ public class LibraryApp {
                 continue;
             }
             if (choice == 99) {
+                saveAll(network != null ? network::checkpoint : library::checkpoint,
+                        borrowerManager::checkpoint, userManager::checkpoint);
                 System.out.println("\nThank you! Visit again.");
                 break;
             }
@@ -517,6 +166,153 @@ public class LibraryApp {
         sc.close();
     }
 
+    private static void startServer(InetAddress address, int port, boolean lazy, BranchNetwork network, String branch)
+            throws IOException {
+        UserManager userManager = new UserManager();
+        BorrowerManager borrowerManager = new BorrowerManager();
+        Library library;
+        LibraryServer server;
+        if (network != null) {
+            library = network.branch(branch);
+            network.startFineSweeps();
+            server = new LibraryServer(library, borrowerManager, userManager, network);
+        } else {
+            library = new Library(new File("."), lazy);
+            library.startFineSweeps();
+            server = new LibraryServer(library, borrowerManager, userManager);
+        }
+        library.getMetrics().compaction("borrowers", borrowerManager.compaction());
+        library.getMetrics().compaction("users", userManager.compaction());
+        registerMetrics(network, library);
+        server.start(address, port);
+        System.out.println("Library server listening on " + address.getHostAddress() + ":" + server.getAddress().getPort()
+                + " (HTTP Basic login with a library account)");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            saveAll(network != null ? network::checkpoint : library::checkpoint, borrowerManager::checkpoint,
+                    userManager::checkpoint);
+        }));
+    }
+
+    // Without JMX the library still runs; only the MBeans are missing.
+    private static void registerMetrics(BranchNetwork network, Library library) {
+        try {
+            if (network != null) {
+                network.registerMetrics();
+            } else {
+                library.getMetrics().register();
+            }
+        } catch (JMException e) {
+            System.out.println("Metrics registration error: " + e.getMessage());
+        }
+    }
+
+    // Runs each save even if an earlier one fails, reporting the failures.
+    // In branch mode the network's checkpoint saves every branch.
+    private static void saveAll(Runnable... saves) {
+        for (Runnable save : saves) {
+            try {
+                save.run();
+            } catch (UncheckedIOException e) {
+                System.out.println("Storage error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void importCatalog(Library lib, File file) {
+        CatalogImporter.Report report = new CatalogImporter(lib).importFile(file, (lines, imported, seconds) ->
+                System.out.printf("   %,d line(s) read, %,d imported (%,.0f books/s)%n",
+                        lines, imported, imported / Math.max(seconds, 1e-9)));
+        if (report.empty) {
+            System.out.println("Nothing to import: " + file.getName() + " is empty.");
+            return;
+        }
+        if (report.failure != null) {
+            System.out.println("Import error: " + report.failure);
+        }
+        System.out.printf("→ Imported %,d book(s) in %.1f s (%,.0f books/s). Duplicates skipped: %,d. Invalid lines: %,d.%n",
+                report.imported, report.seconds, report.booksPerSecond(), report.duplicates, report.invalid);
+        for (String error : report.errors) {
+            System.out.println("   " + error);
+        }
+        if (report.unlisted > 0) {
+            System.out.println("   ... " + report.unlisted + " more");
+        }
+    }
+
+    private static void showBranchMenu(boolean admin) {
+        System.out.println("20. Search All Branches");
+        System.out.println("21. Availability Across Branches");
+        if (admin) {
+            System.out.println("22. Switch / Open Branch");
+        }
+    }
+
+    // Returns the branch to switch to, or null to stay.
+    private static String handleBranchChoice(int choice, BranchNetwork network, boolean admin, Scanner sc) {
+        switch (choice) {
+            case 20:
+                System.out.print("Search all branches (title/author): ");
+                String keyword = sc.nextLine().trim();
+                if (keyword.isEmpty()) {
+                    System.out.println("Enter search term.");
+                    break;
+                }
+                List<BranchNetwork.Hit> hits = network.search(keyword);
+                if (hits.isEmpty()) {
+                    System.out.println("No matches in any branch.");
+                    break;
+                }
+                for (BranchNetwork.Hit hit : hits) {
+                    OUT.printf("[%-10s] ", hit.branch);
+                    displayBook(hit.book);
+                }
+                OUT.flush();
+                break;
+
+            case 21:
+                System.out.print("Book ID: ");
+                int bookId = getValidInt(sc);
+                sc.nextLine();
+                List<BranchNetwork.Availability> stock = network.availability(bookId);
+                if (stock.isEmpty()) {
+                    System.out.println("No branch carries book " + bookId + ".");
+                    break;
+                }
+                for (BranchNetwork.Availability a : stock) {
+                    System.out.printf("  %-12s Avail: %2d/%2d%s%n", a.branch, a.available, a.total,
+                            a.waiting > 0 ? " | Holds waiting: " + a.waiting : "");
+                }
+                break;
+
+            case 22:
+                if (!admin) {
+                    System.out.println("Invalid option.");
+                    break;
+                }
+                System.out.println("Branches: " + String.join(", ", network.names()));
+                System.out.print("Branch name: ");
+                String name = sc.nextLine().trim().toLowerCase();
+                if (!BranchNetwork.validName(name)) {
+                    System.out.println("Invalid branch name.");
+                    break;
+                }
+                boolean opened = network.branch(name) == null;
+                Library lib = network.addBranch(name);
+                if (opened) {
+                    lib.startFineSweeps();
+                    System.out.println("→ Opened new branch " + name + ".");
+                    try {
+                        lib.getMetrics().register(name);
+                    } catch (JMException e) {
+                        System.out.println("Metrics registration error: " + e.getMessage());
+                    }
+                }
+                return name;
+        }
+        return null;
+    }
+
     private static void showAdminMenu() {
         System.out.println("1. Add Book");
         System.out.println("2. View All Books");
@@ -527,6 +323,12 @@ public class LibraryApp {
         System.out.println("7. View Borrower's Books");
         System.out.println("8. Update Book");
         System.out.println("9. Delete Book");
+        System.out.println("10. Overdue Report");
+        System.out.println("11. Bulk Import (CSV/TSV)");
+        System.out.println("12. Metrics");
+        System.out.println("13. Issue by Barcode");
+        System.out.println("14. Return by Barcode");
+        System.out.println("15. Circulation Reports");
         System.out.println("0. Logout");
         System.out.println("99. Exit Program");
     }
@@ -538,6 +340,9 @@ public class LibraryApp {
         System.out.println("4. Borrow Book");
         System.out.println("5. Return Book");
         System.out.println("6. My Borrowed Books");
+        System.out.println("7. My Holds");
+        System.out.println("8. Cancel Hold");
+        System.out.println("9. My Borrowing History");
         System.out.println("0. Logout");
         System.out.println("99. Exit Program");
     }
@@ -554,21 +359,29 @@ public class LibraryApp {
                 String author = sc.nextLine().trim();
                 System.out.print("Total copies: ");
                 int copies = getValidInt(sc);
-                lib.addBook(new Book(id, title, author, copies));
+                if (!Book.validId(id)) {
+                    System.out.println("Book ID must be a positive number.");
+                } else if (!Book.validCopies(copies)) {
+                    System.out.println("Copies must be between 0 and " + Book.MAX_COPIES + ".");
+                } else if (lib.addBook(new Book(id, title, author, copies)) == Outcome.OK) {
+                    System.out.println("→ Book added successfully.");
+                } else {
+                    System.out.println("Book ID " + id + " already exists.");
+                }
                 break;
 
             case 2:
-                lib.viewBooks();
+                viewBooks(lib, sc);
                 break;
 
             case 3:
                 System.out.print("Search (title/author): ");
-                lib.searchBooks(sc.nextLine().trim());
+                searchBooks(lib, sc.nextLine().trim());
                 break;
 
             case 4:
                 System.out.print("Book ID: ");
-                lib.viewBookDetails(getValidInt(sc), borrowerManager.getAllBorrowers());
+                viewBookDetails(lib, getValidInt(sc), borrowerManager.getAllBorrowers());
                 break;
 
             case 5:
@@ -578,7 +391,7 @@ public class LibraryApp {
                 System.out.print("Borrower ID (3 digits): ");
                 String borrowerId = sc.nextLine().trim();
                 if (isValidId(borrowerId)) {
-                    lib.issueBook(bookId, borrowerId, borrowerManager, sc);
+                    issueBook(lib, bookId, borrowerId, borrowerManager, sc);
                 }
                 break;
 
@@ -589,14 +402,14 @@ public class LibraryApp {
                 System.out.print("Borrower ID (3 digits): ");
                 borrowerId = sc.nextLine().trim();
                 if (isValidId(borrowerId))
-                    lib.returnBook(bookId, borrowerId);
+                    returnBook(lib, bookId, borrowerId);
                 break;
 
             case 7:
                 System.out.print("Borrower ID (3 digits): ");
                 borrowerId = sc.nextLine().trim();
                 if (isValidId(borrowerId))
-                    lib.showBooksBorrowedBy(borrowerId, borrowerManager.getAllBorrowers());
+                    showBooksBorrowedBy(lib, borrowerId, borrowerManager.getAllBorrowers());
                 break;
 
             case 8:
@@ -609,12 +422,77 @@ public class LibraryApp {
                 author = sc.nextLine().trim();
                 System.out.print("New Copies: ");
                 copies = getValidInt(sc);
-                lib.updateBook(id, title, author, copies);
+                switch (lib.updateBook(id, title, author, copies)) {
+                    case OK:
+                        System.out.println("→ Book updated.");
+                        break;
+                    case INVALID_COPIES:
+                        System.out.println("Copies must be between 0 and " + Book.MAX_COPIES + ".");
+                        break;
+                    case COPY_ON_LOAN:
+                        System.out.println("Copies above " + copies + " are on loan; return them first.");
+                        break;
+                    default:
+                        System.out.println("Book not found.");
+                }
                 break;
 
             case 9:
                 System.out.print("Delete Book ID: ");
-                lib.deleteBook(getValidInt(sc));
+                System.out.println(lib.deleteBook(getValidInt(sc)) == Outcome.OK
+                        ? "→ Book deleted." : "Book not found.");
+                break;
+
+            case 10:
+                showOverdue(lib, borrowerManager.getAllBorrowers());
+                break;
+
+            case 11:
+                System.out.print("File (id,title,author,copies): ");
+                File importFile = new File(sc.nextLine().trim());
+                if (!importFile.isFile()) {
+                    System.out.println("File not found.");
+                } else {
+                    importCatalog(lib, importFile);
+                }
+                break;
+
+            case 12:
+                System.out.print(lib.getMetrics().dump());
+                break;
+
+            case 13:
+                System.out.print("Scan barcode: ");
+                long barcode = getValidLong(sc);
+                sc.nextLine();
+                System.out.print("Borrower ID (3 digits): ");
+                borrowerId = sc.nextLine().trim();
+                if (isValidId(borrowerId)) {
+                    issueBarcode(lib, barcode, borrowerId, borrowerManager, sc);
+                }
+                break;
+
+            case 14:
+                System.out.print("Scan barcode: ");
+                returnBarcode(lib, getValidLong(sc));
+                break;
+
+            case 15:
+                System.out.print("(1) Most borrowed (2) Borrower history (3) Monthly fines: ");
+                int report = getValidInt(sc);
+                sc.nextLine();
+                if (report == 1) {
+                    showMostBorrowed(lib);
+                } else if (report == 2) {
+                    System.out.print("Borrower ID (3 digits): ");
+                    borrowerId = sc.nextLine().trim();
+                    if (isValidId(borrowerId))
+                        showHistory(lib, borrowerId);
+                } else if (report == 3) {
+                    showMonthlyFines(lib);
+                } else {
+                    System.out.println("Invalid option.");
+                }
                 break;
 
             case 0:
@@ -629,17 +507,17 @@ public class LibraryApp {
     private static void handleUserChoice(int choice, Library lib, BorrowerManager borrowerManager, Scanner sc) {
         switch (choice) {
             case 1:
-                lib.viewBooks();
+                viewBooks(lib, sc);
                 break;
 
             case 2:
                 System.out.print("Search (title/author): ");
-                lib.searchBooks(sc.nextLine().trim());
+                searchBooks(lib, sc.nextLine().trim());
                 break;
 
             case 3:
                 System.out.print("Book ID: ");
-                lib.viewBookDetails(getValidInt(sc), borrowerManager.getAllBorrowers());
+                viewBookDetails(lib, getValidInt(sc), borrowerManager.getAllBorrowers());
                 break;
 
             case 4:
@@ -649,7 +527,7 @@ public class LibraryApp {
                 System.out.print("Your Borrower ID (3 digits): ");
                 String borrowerId = sc.nextLine().trim();
                 if (isValidId(borrowerId)) {
-                    lib.issueBook(bookId, borrowerId, borrowerManager, sc);
+                    issueBook(lib, bookId, borrowerId, borrowerManager, sc);
                 }
                 break;
 
@@ -660,14 +538,48 @@ public class LibraryApp {
                 System.out.print("Your Borrower ID (3 digits): ");
                 borrowerId = sc.nextLine().trim();
                 if (isValidId(borrowerId))
-                    lib.returnBook(bookId, borrowerId);
+                    returnBook(lib, bookId, borrowerId);
                 break;
 
             case 6:
                 System.out.print("Your Borrower ID (3 digits): ");
                 String myId = sc.nextLine().trim();
                 if (isValidId(myId))
-                    lib.showBooksBorrowedBy(myId, borrowerManager.getAllBorrowers());
+                    showBooksBorrowedBy(lib, myId, borrowerManager.getAllBorrowers());
+                break;
+
+            case 7:
+                System.out.print("Your Borrower ID (3 digits): ");
+                myId = sc.nextLine().trim();
+                if (isValidId(myId))
+                    showHolds(lib, myId);
+                break;
+
+            case 8:
+                System.out.print("Book ID: ");
+                bookId = getValidInt(sc);
+                sc.nextLine();
+                System.out.print("Your Borrower ID (3 digits): ");
+                borrowerId = sc.nextLine().trim();
+                if (isValidId(borrowerId)) {
+                    switch (lib.cancelHold(bookId, borrowerId)) {
+                        case OK:
+                            System.out.println("→ Hold cancelled.");
+                            break;
+                        case BOOK_NOT_FOUND:
+                            System.out.println("Book not found.");
+                            break;
+                        default:
+                            System.out.println("You have no hold on this book.");
+                    }
+                }
+                break;
+
+            case 9:
+                System.out.print("Your Borrower ID (3 digits): ");
+                myId = sc.nextLine().trim();
+                if (isValidId(myId))
+                    showHistory(lib, myId);
                 break;
 
             case 0:
@@ -679,6 +591,334 @@ public class LibraryApp {
         }
     }
 
+    // Listings are rendered into one reusable buffer and flushed once per page.
+    private static final PrintWriter OUT = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 14));
+    private static final int PAGE_SIZE = 20;
+
+    private static final String BOOK_LINE = "ID: %04d | %-30s | %-25s | Avail: %2d/%2d%n";
+
+    private static void displayBook(Book b) {
+        OUT.printf(BOOK_LINE, b.getId(), b.getTitle(), b.getAuthor(), b.getAvailableCopies(), b.getTotalCopies());
+    }
+
+    static String formatFine(long paise) {
+        return String.format("₹%d.%02d", paise / 100, paise % 100);
+    }
+
+    private static void viewBooks(Library lib, Scanner sc) {
+        if (lib.size() == 0) {
+            System.out.println("No books available.");
+            return;
+        }
+        System.out.print("Sort by (1) ID (2) Title (3) Author: ");
+        int sort = getValidInt(sc);
+        sc.nextLine();
+        CatalogViews.Order order = sort == 2 ? CatalogViews.Order.TITLE
+                : sort == 3 ? CatalogViews.Order.AUTHOR : CatalogViews.Order.ID;
+
+        CatalogViews.Cursor cursor = null;
+        for (int page = 1; ; page++) {
+            CatalogViews.Page p = lib.listPage(order, cursor, PAGE_SIZE);
+            OUT.println("\n===== Library Books (by " + order.name().toLowerCase() + ", page " + page + ") =====");
+            for (Book b : p.books) {
+                displayBook(b);
+            }
+            OUT.flush();
+            if (p.next == null) {
+                break;
+            }
+            System.out.print("Enter for next page, q to stop: ");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            cursor = p.next;
+        }
+    }
+
+    private static final int SEARCH_RESULTS = 20;
+
+    private static void searchBooks(Library lib, String keyword) {
+        keyword = keyword.trim().toLowerCase();
+        if (keyword.isEmpty()) {
+            System.out.println("Enter search term.");
+            return;
+        }
+        List<RankedIndex.Match> results = lib.rankBooks(keyword, SEARCH_RESULTS);
+        if (results.isEmpty()) {
+            System.out.println("No matches for '" + keyword + "'.");
+        } else {
+            System.out.println("\nBest matches for '" + keyword + "':");
+            for (RankedIndex.Match m : results) {
+                displayBook(m.book);
+            }
+            OUT.flush();
+        }
+    }
+
+    private static void viewBookDetails(Library lib, int id, Map<String, Borrower> borrowerMap) {
+        String view = lib.bookView(id, ViewCache.TEXT, () -> renderBookDetails(lib, id, borrowerMap));
+        System.out.print(view != null ? view : "Book ID " + id + " not found.\n");
+    }
+
+    private static String renderBookDetails(Library lib, int id, Map<String, Borrower> borrowerMap) {
+        Book b = lib.getBook(id);
+        if (b == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(String.format(BOOK_LINE, b.getId(), b.getTitle(), b.getAuthor(),
+                b.getAvailableCopies(), b.getTotalCopies()));
+        int waiting = lib.holdQueueLength(id);
+        if (waiting > 0) {
+            out.append("   Holds waiting: ").append(waiting).append('\n');
+        }
+        List<BorrowRecord> records = lib.getBorrowRecords(id);
+        if (records.isEmpty()) {
+            out.append("   Not currently borrowed.\n");
+        } else {
+            out.append("   Borrowed records:\n");
+            for (BorrowRecord br : records) {
+                Borrower borrower = borrowerMap.get(br.getBorrowerId());
+                String borrowerInfo = (borrower != null) ? borrower.toString() : br.getBorrowerId() + " (Name unknown)";
+                out.append("     • Copy ").append(br.getCopy()).append(" [").append(b.barcode(br.getCopy()))
+                        .append("] | ").append(borrowerInfo).append(" | ").append(br.getIssueDate())
+                        .append(" | Due: ").append(br.getDueDate()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void ensureBorrower(String borrowerId, BorrowerManager borrowerManager, Scanner sc) {
+        if (borrowerManager.getBorrower(borrowerId) == null) {
+            System.out.print("New borrower! Enter name for ID " + borrowerId + ": ");
+            Borrower added = borrowerManager.getOrCreateBorrower(borrowerId, sc.nextLine().trim());
+            System.out.println("Borrower added: " + added);
+        }
+    }
+
+    private static void issueBook(Library lib, int bookId, String borrowerId, BorrowerManager borrowerManager, Scanner sc) {
+        ensureBorrower(borrowerId, borrowerManager, sc);
+        Circulation.Result result = lib.issueCopy(bookId, borrowerId);
+        switch (result.outcome) {
+            case OK:
+                System.out.println("→ Issued copy " + result.record.getCopy() + " [barcode "
+                        + Book.barcodeOf(bookId, result.record.getCopy()) + "]. Due: " + result.record.getDueDate());
+                break;
+            case BOOK_NOT_FOUND:
+                System.out.println("Book not found.");
+                break;
+            default:
+                System.out.print("No copies available. Place a hold? (y/n): ");
+                if (sc.nextLine().trim().equalsIgnoreCase("y")) {
+                    placeHold(lib, bookId, borrowerId);
+                }
+        }
+    }
+
+    private static void placeHold(Library lib, int bookId, String borrowerId) {
+        switch (lib.placeHold(bookId, borrowerId)) {
+            case OK:
+                System.out.println("→ Hold placed. You are number " + lib.holdQueueLength(bookId)
+                        + " in line; the copy is kept for " + Holds.PICKUP_DAYS + " days once it is back.");
+                break;
+            case COPIES_AVAILABLE:
+                System.out.println("A copy has just come back; borrow it instead.");
+                break;
+            case ALREADY_HELD:
+                System.out.println("You already have a hold on this book.");
+                break;
+            default:
+                System.out.println("Book not found.");
+        }
+    }
+
+    private static void showHolds(Library lib, String borrowerId) {
+        List<Holds.Status> holds = lib.holdsOf(borrowerId);
+        if (holds.isEmpty()) {
+            System.out.println("No holds.");
+            return;
+        }
+        System.out.println("\nHolds for " + borrowerId + ":");
+        for (Holds.Status h : holds) {
+            Book b = lib.getBook(h.bookId);
+            String title = b != null ? b.getTitle() : "(deleted)";
+            if (h.copy > 0) {
+                System.out.println("  Book #" + h.bookId + " - " + title + " | READY: copy " + h.copy
+                        + " [" + Book.barcodeOf(h.bookId, h.copy) + "], collect by " + h.readyUntil);
+            } else {
+                System.out.println("  Book #" + h.bookId + " - " + title + " | Position " + h.position);
+            }
+        }
+    }
+
+    private static void issueBarcode(Library lib, long barcode, String borrowerId, BorrowerManager borrowerManager, Scanner sc) {
+        ensureBorrower(borrowerId, borrowerManager, sc);
+        Circulation.Result result = lib.issueBarcode(barcode, borrowerId);
+        switch (result.outcome) {
+            case OK:
+                System.out.println("→ Issued " + barcode + ". Due: " + result.record.getDueDate());
+                break;
+            case COPY_NOT_FOUND:
+                System.out.println("No copy with barcode " + barcode + ".");
+                break;
+            default:
+                System.out.println("Copy " + barcode + " is already on loan.");
+        }
+    }
+
+    private static void returnBook(Library lib, int bookId, String borrowerId) {
+        Circulation.Result result = lib.returnCopy(bookId, borrowerId);
+        switch (result.outcome) {
+            case OK:
+                printReturned(result);
+                break;
+            case BOOK_NOT_FOUND:
+                System.out.println("Book not found.");
+                break;
+            default:
+                System.out.println("This ID did not borrow this book.");
+        }
+    }
+
+    private static void returnBarcode(Library lib, long barcode) {
+        Circulation.Result result = lib.returnBarcode(barcode);
+        switch (result.outcome) {
+            case OK:
+                System.out.println("→ Copy " + barcode + " was on loan to " + result.record.getBorrowerId() + ".");
+                printReturned(result);
+                break;
+            case COPY_NOT_FOUND:
+                System.out.println("No copy with barcode " + barcode + ".");
+                break;
+            default:
+                System.out.println("Copy " + barcode + " is not on loan.");
+        }
+    }
+
+    private static void printReturned(Circulation.Result result) {
+        if (result.fine > 0) {
+            long daysLate = ChronoUnit.DAYS.between(result.record.getDueDate(), LocalDate.now());
+            System.out.println("→ Book returned LATE by " + daysLate + " day(s). Fine: " + formatFine(result.fine));
+        } else {
+            System.out.println("→ Book returned on time. No fine.");
+        }
+        System.out.println("→ Returned successfully.");
+        if (result.hold != null) {
+            System.out.println("→ Set aside copy " + result.hold.copy + " for borrower " + result.hold.borrowerId
+                    + " (hold); keep it at the desk until " + result.hold.readyUntil + ".");
+        }
+    }
+
+    // Borrowers not registered yet are shown but not cached: registering
+    // one changes the name shown without changing any loan.
+    private static void showBooksBorrowedBy(Library lib, String borrowerId, Map<String, Borrower> borrowerMap) {
+        Borrower borrower = borrowerMap.get(borrowerId);
+        System.out.print(borrower == null ? renderBorrowedBy(lib, borrowerId + " - Unknown", borrowerId)
+                : lib.borrowerView(borrowerId, ViewCache.TEXT, () -> renderBorrowedBy(lib, borrower.toString(), borrowerId)));
+    }
+
+    private static String renderBorrowedBy(Library lib, String heading, String borrowerId) {
+        StringBuilder out = new StringBuilder("\nBooks borrowed by ").append(heading).append(":\n");
+        List<LoanIndex.Loan> loans = new ArrayList<>(lib.loansOf(borrowerId));
+        loans.sort(Comparator.comparingInt(l -> l.bookId));
+
+        LoanIndex.Loan previous = null;
+        for (LoanIndex.Loan loan : loans) {
+            if (previous == null || previous.bookId != loan.bookId) {
+                Book b = lib.getBook(loan.bookId);
+                out.append("  Book #").append(loan.bookId).append(" - ")
+                        .append(b != null ? b.getTitle() : "(deleted)").append('\n');
+            }
+            BorrowRecord r = loan.record;
+            out.append("     • Copy ").append(r.getCopy()).append(" [").append(Book.barcodeOf(loan.bookId, r.getCopy()))
+                    .append("] | Issued: ").append(r.getIssueDate()).append(" | Due: ").append(r.getDueDate()).append('\n');
+            previous = loan;
+        }
+        if (loans.isEmpty()) {
+            out.append("   No books currently borrowed by this ID.\n");
+        }
+        return out.toString();
+    }
+
+    private static final int TOP_TITLES = 10;
+
+    private static void showMostBorrowed(Library lib) {
+        List<HistoryArchive.Count> top = lib.mostBorrowed(TOP_TITLES);
+        System.out.println("\n===== Most Borrowed =====");
+        warnLostHistory(lib);
+        if (top.isEmpty()) {
+            System.out.println("   No returned loans yet.");
+            return;
+        }
+        int rank = 1;
+        for (HistoryArchive.Count c : top) {
+            Book b = lib.getBook(c.bookId);
+            System.out.printf("%2d. Book #%04d - %-30s | %d loan(s)%n",
+                    rank++, c.bookId, b != null ? b.getTitle() : "(deleted)", c.loans);
+        }
+    }
+
+    private static void warnLostHistory(Library lib) {
+        long lost = lib.lostHistoryRows();
+        if (lost > 0) {
+            System.out.println("   Note: " + lost + " returned loan(s) are missing; their history could not be written ("
+                    + lib.historyFailure().getMessage() + ").");
+        }
+    }
+
+    private static void showHistory(Library lib, String borrowerId) {
+        List<HistoryArchive.Entry> entries = lib.historyOf(borrowerId);
+        System.out.println("\nBorrowing history of " + borrowerId + ":");
+        warnLostHistory(lib);
+        if (entries.isEmpty()) {
+            System.out.println("   No returned loans.");
+            return;
+        }
+        long fines = 0;
+        for (HistoryArchive.Entry e : entries) {
+            Book b = lib.getBook(e.bookId);
+            System.out.println("  Book #" + e.bookId + " - " + (b != null ? b.getTitle() : "(deleted)")
+                    + " | " + e.issueDate + " → " + e.returnDate
+                    + (e.fine > 0 ? " | Fine: " + formatFine(e.fine) : ""));
+            fines += e.fine;
+        }
+        System.out.println("Loans: " + entries.size() + " | Fines paid: " + formatFine(fines));
+    }
+
+    private static void showMonthlyFines(Library lib) {
+        SortedMap<YearMonth, Long> fines = lib.monthlyFines();
+        System.out.println("\n===== Fines by Month =====");
+        warnLostHistory(lib);
+        if (fines.isEmpty()) {
+            System.out.println("   No fines charged yet.");
+            return;
+        }
+        for (Map.Entry<YearMonth, Long> e : fines.entrySet()) {
+            System.out.println("  " + e.getKey() + "  " + formatFine(e.getValue()));
+        }
+    }
+
+    private static void showOverdue(Library lib, Map<String, Borrower> borrowerMap) {
+        LocalDate today = LocalDate.now();
+        List<LoanIndex.Loan> overdue = lib.overdueLoans();
+        System.out.println("\n===== Overdue Loans (" + today + ") =====");
+        if (overdue.isEmpty()) {
+            System.out.println("   No overdue loans.");
+            return;
+        }
+        for (LoanIndex.Loan loan : overdue) {
+            BorrowRecord r = loan.record;
+            Book b = lib.getBook(loan.bookId);
+            Borrower borrower = borrowerMap.get(r.getBorrowerId());
+            long daysLate = ChronoUnit.DAYS.between(r.getDueDate(), today);
+            System.out.printf("  Book #%04d - %-25s | %-20s | Due: %s | %3d day(s) late | Fine: %s%n",
+                    loan.bookId, b != null ? b.getTitle() : "(deleted)",
+                    borrower != null ? borrower.getName() + " (" + r.getBorrowerId() + ")" : r.getBorrowerId(),
+                    r.getDueDate(), daysLate, formatFine(Book.fineFor(r, today)));
+        }
+        System.out.printf("Overdue loans: %d | Fines accrued: %s%n",
+                lib.getOverdueCount(), formatFine(lib.getAccruedFines()));
+    }
+
     private static boolean isValidId(String id) {
         if (id == null || id.length() != 3 || !id.matches("\\d{3}")) {
             System.out.println("Borrower ID must be exactly 3 digits (example: 101, 007).");
@@ -695,4 +935,12 @@ public class LibraryApp {
         int value = sc.nextInt();
         return value;
     }
-}
\ No newline at end of file
+
+    private static long getValidLong(Scanner sc) {
+        while (!sc.hasNextLong()) {
+            System.out.print("Enter a valid barcode: ");
+            sc.next(); // discard invalid input
+        }
+        return sc.nextLong();
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/* ---------------- BENCHMARKS ---------------- */
+// Micro-benchmarks for the Library hot paths against synthetic catalogs.
+// Each case is warmed up, then timed over several iterations; the report is
+// mean ns/op with the spread between iterations; a volatile sink keeps
+// results live. The JMH module in jmh/ runs the same cases under JMH.
+//
+//   javac LibraryApp.java LibraryBenchmark.java
+//   java LibraryBenchmark [sizes...]        (default: 1000 100000 1000000)
+//
+// Data files are written to a temporary directory, never the working one.
+public class LibraryBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long ITERATION_NANOS = 1_000_000_000L;
+    private static final int ITERATIONS = 5;
+
+    private static final String[] WORDS = {
+            "the", "of", "river", "night", "garden", "history", "war", "peace", "silent", "city",
+            "stars", "lost", "empire", "shadow", "winter", "ocean", "dream", "code", "mind", "machine",
+            "kingdom", "secret", "light", "fire", "road", "island", "letters", "journey", "house", "storm"};
+    private static final String[] FIRST = {
+            "Jane", "Leo", "Arundhati", "Gabriel", "Toni", "Haruki", "Chinua", "Virginia", "R.K.", "Ursula",
+            "Fyodor", "Isabel", "Kazuo", "Mary", "Ruskin", "Salman", "Octavia", "Amitav", "Doris", "Italo"};
+    private static final String[] LAST = {
+            "Austen", "Tolstoy", "Roy", "Marquez", "Morrison", "Murakami", "Achebe", "Woolf", "Narayan", "Le Guin",
+            "Dostoevsky", "Allende", "Ishiguro", "Shelley", "Bond", "Rushdie", "Butler", "Ghosh", "Lessing", "Calvino"};
+
+    static volatile Object sink;
+
+    interface Op {
+        Object run(int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[]{1000, 100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        for (int size : sizes) {
+            File dir = createTempDir();
+            System.out.printf("%n== catalog of %,d books ==%n", size);
+            Random rnd = new Random(42);
+            writeCatalog(dir, size, rnd);
+            System.out.printf("   library.bin: %,d bytes%n", new File(dir, "library.bin").length());
+            try {
+                runCases(System.out, dir, size);
+            } finally {
+                deleteDir(dir);
+            }
+        }
+    }
+
+    private static void runCases(PrintStream out, File dir, int size) {
+        boolean slow = size >= 200_000;
+        bench(out, "loadFromFile", slow, i -> new Library(dir));
+        bench(out, "loadFromFile (lazy)", false, i -> new Library(dir, true));
+
+        Library library = new Library(dir);
+        Random rnd = new Random(7);
+        int[] ids = new int[4096];
+        String[] keywords = new String[ids.length];
+        String[] borrowers = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + rnd.nextInt(size);
+            keywords[i] = randomKeyword(rnd);
+            borrowers[i] = String.format("%03d", rnd.nextInt(1000));
+        }
+        int mask = ids.length - 1;
+
+        bench(out, "getBook (ID lookup)", false, i -> library.getBook(ids[i & mask]));
+        bench(out, "searchBooks", false, i -> library.findBooks(keywords[i & mask]));
+        bench(out, "searchBooks (rare term)", false, i -> library.findBooks("zzq"));
+        String[] typos = new String[keywords.length];
+        for (int i = 0; i < typos.length; i++) {
+            // Swap two adjacent letters in the middle of the word.
+            char[] c = keywords[i].toCharArray();
+            int at = c.length / 2;
+            char t = c[at];
+            c[at] = c[at - 1];
+            c[at - 1] = t;
+            typos[i] = new String(c);
+        }
+        bench(out, "rankBooks (top 20)", false, i -> library.rankBooks(keywords[i & mask], 20));
+        bench(out, "rankBooks (typo, top 20)", false, i -> library.rankBooks(typos[i & mask], 20));
+        bench(out, "issueBook + returnBook", false, i -> {
+            int id = ids[i & mask];
+            return library.issueCopy(id, "999").isOk() ? library.returnCopy(id, "999") : null;
+        });
+        bench(out, "issue + return by barcode", false, i -> {
+            long barcode = Book.barcodeOf(ids[i & mask], 1);
+            return library.issueBarcode(barcode, "999").isOk() ? library.returnBarcode(barcode) : null;
+        });
+        bench(out, "loansOf (borrower lookup)", false, i -> library.loansOf(borrowers[i & mask]));
+        // Cursor of a page deep into the title order; fetching after it costs the same as page 1.
+        CatalogViews.Cursor deep = CatalogViews.keyOf(library.getBook(ids[0]), CatalogViews.Order.TITLE);
+        bench(out, "listPage (by title, 20 rows)", false, i -> library.listPage(CatalogViews.Order.TITLE, deep, 20));
+        // checkpoint() writes only when the journal has changes; making one is not timed.
+        bench(out, "saveToFile (checkpoint)", slow, i -> {
+            library.issueCopy(ids[i & mask], "999");
+            return library.returnCopy(ids[i & mask], "999");
+        }, i -> {
+            library.checkpoint();
+            return null;
+        });
+    }
+
+    private static void bench(PrintStream out, String name, boolean slow, Op op) {
+        bench(out, name, slow, null, op);
+    }
+
+    // A slow case is warmed up with one call and each iteration times one
+    // call. setup, if given, runs before every call and is not timed.
+    private static void bench(PrintStream out, String name, boolean slow, Op setup, Op op) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        int i = 0;
+        do {
+            if (setup != null) {
+                sink = setup.run(i);
+            }
+            sink = op.run(i++);
+        } while (System.nanoTime() < warmupEnd && !slow);
+
+        double[] nsPerOp = new double[ITERATIONS];
+        for (int it = 0; it < ITERATIONS; it++) {
+            long start = System.nanoTime();
+            long timed = 0;
+            long ops = 0;
+            long now;
+            do {
+                if (setup != null) {
+                    sink = setup.run(i);
+                    long callStart = System.nanoTime();
+                    sink = op.run(i++);
+                    now = System.nanoTime();
+                    timed += now - callStart;
+                } else {
+                    sink = op.run(i++);
+                    now = System.nanoTime();
+                    timed = now - start;
+                }
+                ops++;
+            } while (now - start < ITERATION_NANOS && !slow);
+            nsPerOp[it] = (double) timed / ops;
+        }
+
+        double mean = 0;
+        for (double v : nsPerOp) {
+            mean += v;
+        }
+        mean /= ITERATIONS;
+        double var = 0;
+        for (double v : nsPerOp) {
+            var += (v - mean) * (v - mean);
+        }
+        double sd = Math.sqrt(var / (ITERATIONS - 1));
+        out.printf("   %-28s %,16.1f ns/op  ± %,.1f%n", name, mean, sd);
+    }
+
+    // Builds the catalog in memory and writes library.bin directly so setup
+    // does not go through the journal.
+    static void writeCatalog(File dir, int size, Random rnd) throws IOException {
+        ArrayList<Book> books = new ArrayList<>(size);
+        LocalDate today = LocalDate.now();
+        for (int id = 1; id <= size; id++) {
+            String title = cap(WORDS[rnd.nextInt(WORDS.length)]) + " " + WORDS[rnd.nextInt(WORDS.length)]
+                    + " " + WORDS[rnd.nextInt(WORDS.length)];
+            String author = FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+            int copies = 1 + (int) Math.floor(-Math.log(1 - rnd.nextDouble()) * 1.5); // mostly 1-3
+            Book b = new Book(id, title, author, copies);
+
+            // About a quarter of titles are out, each with between one and all
+            // of its copies on loan; some of those loans are already overdue.
+            if (rnd.nextInt(4) == 0) {
+                int loans = 1 + rnd.nextInt(copies);
+                for (int k = 0; k < loans; k++) {
+                    LocalDate issued = today.minusDays(rnd.nextInt(40));
+                    String borrower = String.format("%03d", rnd.nextInt(1000));
+                    b.issueBook(new BorrowRecord(borrower, issued, issued.plusDays(14)));
+                }
+            }
+            books.add(b);
+        }
+        Library.writeSnapshot(new File(dir, "library.bin"), books, Collections.emptyList(), 0);
+    }
+
+    // A title word or an author's surname, as a reader might search for.
+    static String randomKeyword(Random rnd) {
+        return rnd.nextBoolean() ? WORDS[rnd.nextInt(WORDS.length)] : LAST[rnd.nextInt(LAST.length)];
+    }
+
+    private static String cap(String w) {
+        return Character.toUpperCase(w.charAt(0)) + w.substring(1);
+    }
+
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("library-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    deleteDir(f); // history/
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
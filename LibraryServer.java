@@ -0,0 +1,915 @@
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* ---------------- HTTP SERVER ---------------- */
+// Headless mode: serves the same operations as the console menus as JSON.
+// Inputs are taken from the query string or a form-encoded request body.
+//
+// Every request logs in with HTTP Basic against the console's user accounts
+// (401 without valid credentials). As in the console, adding, updating and
+// deleting books, barcode and batch circulation, the overdue list, the
+// history reports and the metrics are for ADMIN users only (403 otherwise).
+// The server listens on the loopback address unless started with --bind.
+//
+//   GET    /books?q=term                 list or search books
+//   GET    /books?sort=id|title|author&limit=n&after=cursor
+//                                        one page, with the cursor of the next
+//   POST   /books         id,title,author,copies
+//   GET    /books/{id}                   details with active loans
+//   GET    /search?q=words&limit=n       best matches first; tolerates typos
+//   PUT    /books/{id}    title,author,copies
+//   DELETE /books/{id}
+//   POST   /books/{id}/issue   borrowerId[,name]
+//   POST   /books/{id}/return  borrowerId
+//   POST   /books/{id}/hold         borrowerId   join the queue for the next copy
+//   POST   /books/{id}/cancel-hold  borrowerId
+//   POST   /copies/{barcode}/issue   borrowerId[,name]
+//   POST   /copies/{barcode}/return  whoever holds that copy
+//   GET    /borrowers/{id}/loans
+//   GET    /borrowers/{id}/holds         place in line, or the copy set aside
+//   GET    /borrowers/{id}/history       returned loans, oldest first
+//   GET    /history/top?limit=n          most-borrowed books
+//   GET    /history/fines                fines charged per month
+//   GET    /overdue                      overdue loans, most overdue first
+//   GET    /metrics                      latency and gauge table (text/plain)
+//   POST   /circulation   ops            all-or-nothing batch, e.g.
+//                                        ops=issue:12:101,return:40:207
+//
+// A return that sets its copy aside for a hold reports it as "heldFor".
+//
+// In branch mode (--branch) the routes above serve the selected branch, and
+// every branch also answers them under /branches/{name}, e.g.
+// POST /branches/north/books/12/issue. Across all branches:
+//
+//   GET    /branches                     names and book counts
+//   GET    /branches/search?q=term       matches in every branch
+//   GET    /branches/availability/{id}   copies of a title in each branch
+class LibraryServer {
+    private static final String REALM = "library";
+    private static final String USER = "library.user"; // exchange attribute: the authenticated User
+
+    private final Library library;
+    private final BorrowerManager borrowerManager;
+    private final UserManager userManager;
+    private final BranchNetwork network; // null unless in branch mode
+    private final int prefix;            // leading path parts before the routes
+    private final Map<String, LibraryServer> branchServers = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public LibraryServer(Library library, BorrowerManager borrowerManager, UserManager userManager) {
+        this(library, borrowerManager, userManager, null, 0);
+    }
+
+    /** Serves library at the root and every branch of network under /branches/{name}. */
+    public LibraryServer(Library library, BorrowerManager borrowerManager, UserManager userManager,
+            BranchNetwork network) {
+        this(library, borrowerManager, userManager, network, 0);
+    }
+
+    private LibraryServer(Library library, BorrowerManager borrowerManager, UserManager userManager,
+            BranchNetwork network, int prefix) {
+        this.library = library;
+        this.borrowerManager = borrowerManager;
+        this.userManager = userManager;
+        this.network = network;
+        this.prefix = prefix;
+    }
+
+    /** Listens on address (the loopback address unless the operator chose otherwise). */
+    public void start(InetAddress address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        route("/books", this::handleBooks);
+        route("/copies", this::handleCopies);
+        route("/search", this::handleSearch);
+        route("/borrowers", this::handleBorrowers);
+        route("/overdue", this::handleOverdue);
+        route("/history", this::handleHistory);
+        route("/circulation", this::handleCirculation);
+        route("/metrics", this::handleMetrics);
+        if (network != null) {
+            route("/branches", this::handleBranches);
+        }
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void route(String path, HttpHandler handler) {
+        server.createContext(path, handler).setAuthenticator(new BasicLogin());
+    }
+
+    // HTTP Basic against the user accounts. Every request is checked through
+    // UserManager's verified-session cache, so only a client's first request
+    // (or the first after the session expires) pays for PBKDF2. Runs on the
+    // request's own thread, so that check holds up only that request.
+    private final class BasicLogin extends Authenticator {
+        @Override
+        public Result authenticate(HttpExchange ex) {
+            User user = login(ex.getRequestHeaders().getFirst("Authorization"));
+            if (user == null) {
+                ex.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"" + REALM + "\", charset=\"UTF-8\"");
+                return new Failure(401);
+            }
+            ex.setAttribute(USER, user);
+            return new Success(new HttpPrincipal(user.getUsername(), REALM));
+        }
+    }
+
+    // The user named by a "Basic base64(username:password)" header, or null.
+    private User login(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            return null;
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()),
+                    StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = credentials.indexOf(':');
+        return colon < 0 ? null : userManager.authenticate(credentials.substring(0, colon),
+                credentials.substring(colon + 1));
+    }
+
+    // Sends 403 and returns false unless the request was made by an ADMIN.
+    private static boolean admin(HttpExchange ex) throws IOException {
+        User user = (User) ex.getAttribute(USER);
+        if (user != null && user.getRole().equals("ADMIN")) {
+            return true;
+        }
+        error(ex, 403, "This needs an ADMIN account.");
+        return false;
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // One virtual thread per request on JDK 21+, a cached pool before that.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handleBooks(HttpExchange ex) throws IOException {
+        try {
+            String[] path = pathParts(ex);
+            Map<String, String> params = params(ex);
+            String method = ex.getRequestMethod();
+
+            if (path.length == 1) {
+                if (method.equals("GET") && (params.containsKey("sort") || params.containsKey("limit")
+                        || params.containsKey("after"))) {
+                    sendPage(ex, params);
+                } else if (method.equals("GET")) {
+                    String q = params.get("q");
+                    List<Book> books = q == null ? library.listBooks() : library.findBooks(q);
+                    StringBuilder json = new StringBuilder("[");
+                    for (Book b : books) {
+                        if (json.length() > 1) {
+                            json.append(',');
+                        }
+                        appendBook(json, b);
+                    }
+                    send(ex, 200, json.append(']').toString());
+                } else if (method.equals("POST")) {
+                    if (!admin(ex)) {
+                        return;
+                    }
+                    Book b = new Book(intParam(params, "id"), required(params, "title"),
+                            required(params, "author"), intParam(params, "copies"));
+                    if (library.addBook(b) == Outcome.OK) {
+                        send(ex, 201, appendBook(new StringBuilder(), b).toString());
+                    } else {
+                        error(ex, 409, "Book ID " + b.getId() + " already exists.");
+                    }
+                } else {
+                    error(ex, 405, "Method not allowed.");
+                }
+                return;
+            }
+
+            int id;
+            try {
+                id = Integer.parseInt(path[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Book ID must be a number.");
+            }
+            if (path.length == 2) {
+                if (method.equals("GET")) {
+                    String json = library.bookView(id, ViewCache.JSON, () -> bookDetails(id));
+                    if (json == null) {
+                        error(ex, 404, "Book not found.");
+                        return;
+                    }
+                    send(ex, 200, json);
+                } else if (method.equals("PUT")) {
+                    if (!admin(ex)) {
+                        return;
+                    }
+                    switch (library.updateBook(id, required(params, "title"), required(params, "author"),
+                            intParam(params, "copies"))) {
+                        case OK:
+                            send(ex, 200, appendBook(new StringBuilder(), library.getBook(id)).toString());
+                            break;
+                        case INVALID_COPIES:
+                            error(ex, 400, "Copies must be between 0 and " + Book.MAX_COPIES + ".");
+                            break;
+                        case COPY_ON_LOAN:
+                            error(ex, 409, "A copy that would be withdrawn is on loan.");
+                            break;
+                        default:
+                            error(ex, 404, "Book not found.");
+                    }
+                } else if (method.equals("DELETE")) {
+                    if (!admin(ex)) {
+                        return;
+                    }
+                    if (library.deleteBook(id) == Outcome.OK) {
+                        send(ex, 200, "{\"deleted\":" + id + "}");
+                    } else {
+                        error(ex, 404, "Book not found.");
+                    }
+                } else {
+                    error(ex, 405, "Method not allowed.");
+                }
+                return;
+            }
+
+            if (path.length == 3 && method.equals("POST")) {
+                String borrowerId = borrowerIdParam(params);
+                if (library.getBook(id) == null) {
+                    error(ex, 404, "Book not found.");
+                } else if (path[2].equals("issue")) {
+                    String name = params.get("name");
+                    borrowerManager.getOrCreateBorrower(borrowerId, name != null ? name : "Unknown");
+                    Circulation.Result result = library.issueCopy(id, borrowerId);
+                    if (result.isOk()) {
+                        send(ex, 201, appendRecord(new StringBuilder(), id, result.record).toString());
+                    } else {
+                        error(ex, 409, "No copies available.");
+                    }
+                } else if (path[2].equals("return")) {
+                    Circulation.Result result = library.returnCopy(id, borrowerId);
+                    if (result.isOk()) {
+                        send(ex, 200, appendHeldFor(new StringBuilder("{\"bookId\":").append(id)
+                                .append(",\"borrowerId\":").append(quote(borrowerId))
+                                .append(",\"barcode\":").append(Book.barcodeOf(id, result.record.getCopy()))
+                                .append(",\"finePaise\":").append(result.fine), result).append('}').toString());
+                    } else {
+                        error(ex, 409, "This ID did not borrow this book.");
+                    }
+                } else if (path[2].equals("hold")) {
+                    switch (library.placeHold(id, borrowerId)) {
+                        case OK:
+                            borrowerManager.getOrCreateBorrower(borrowerId, "Unknown");
+                            send(ex, 201, "{\"bookId\":" + id + ",\"borrowerId\":" + quote(borrowerId)
+                                    + ",\"waiting\":" + library.holdQueueLength(id) + "}");
+                            break;
+                        case COPIES_AVAILABLE:
+                            error(ex, 409, "Copies are available; issue one instead.");
+                            break;
+                        case ALREADY_HELD:
+                            error(ex, 409, "This ID already has a hold on this book.");
+                            break;
+                        default:
+                            error(ex, 404, "Book not found.");
+                    }
+                } else if (path[2].equals("cancel-hold")) {
+                    switch (library.cancelHold(id, borrowerId)) {
+                        case OK:
+                            send(ex, 200, "{\"bookId\":" + id + ",\"borrowerId\":" + quote(borrowerId)
+                                    + ",\"cancelled\":true}");
+                            break;
+                        case NO_HOLD:
+                            error(ex, 409, "This ID has no hold on this book.");
+                            break;
+                        default:
+                            error(ex, 404, "Book not found.");
+                    }
+                } else {
+                    error(ex, 404, "Unknown action.");
+                }
+                return;
+            }
+            error(ex, 404, "Not found.");
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void handleCopies(HttpExchange ex) throws IOException {
+        try {
+            String[] path = pathParts(ex);
+            if (path.length != 3 || !ex.getRequestMethod().equals("POST")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            if (!admin(ex)) {
+                return;
+            }
+            long barcode;
+            try {
+                barcode = Long.parseLong(path[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Barcode must be a number.");
+            }
+            Map<String, String> params = params(ex);
+            Circulation.Result result;
+            if (path[2].equals("issue")) {
+                String borrowerId = borrowerIdParam(params);
+                result = library.issueBarcode(barcode, borrowerId);
+                if (result.isOk()) {
+                    String name = params.get("name");
+                    borrowerManager.getOrCreateBorrower(borrowerId, name != null ? name : "Unknown");
+                    send(ex, 201, appendRecord(new StringBuilder(), Book.bookIdOf(barcode), result.record).toString());
+                    return;
+                }
+            } else if (path[2].equals("return")) {
+                result = library.returnBarcode(barcode);
+                if (result.isOk()) {
+                    send(ex, 200, appendHeldFor(new StringBuilder("{\"barcode\":").append(barcode)
+                            .append(",\"borrowerId\":").append(quote(result.record.getBorrowerId()))
+                            .append(",\"finePaise\":").append(result.fine), result).append('}').toString());
+                    return;
+                }
+            } else {
+                error(ex, 404, "Unknown action.");
+                return;
+            }
+            switch (result.outcome) {
+                case COPY_NOT_FOUND:
+                    error(ex, 404, "No copy with barcode " + barcode + ".");
+                    break;
+                case COPY_ON_LOAN:
+                    error(ex, 409, "That copy is already on loan or set aside for a hold.");
+                    break;
+                default:
+                    error(ex, 409, "That copy is not on loan.");
+            }
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private static final int MAX_PAGE = 1000;
+
+    private void sendPage(HttpExchange ex, Map<String, String> params) throws IOException {
+        CatalogViews.Order order;
+        try {
+            order = CatalogViews.Order.valueOf(params.getOrDefault("sort", "id").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter 'sort' must be id, title or author.");
+        }
+        int limit = params.containsKey("limit") ? intParam(params, "limit") : 50;
+        if (limit < 1 || limit > MAX_PAGE) {
+            throw new IllegalArgumentException("Parameter 'limit' must be between 1 and " + MAX_PAGE + ".");
+        }
+        String after = params.get("after");
+        CatalogViews.Page page = library.listPage(order,
+                after == null || after.isEmpty() ? null : CatalogViews.Cursor.parse(after), limit);
+        StringBuilder json = new StringBuilder("{\"books\":[");
+        for (int i = 0; i < page.books.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendBook(json, page.books.get(i));
+        }
+        json.append("],\"next\":").append(page.next != null ? quote(page.next.toString()) : "null").append('}');
+        send(ex, 200, json.toString());
+    }
+
+    private void handleSearch(HttpExchange ex) throws IOException {
+        try {
+            if (pathParts(ex).length != 1 || !ex.getRequestMethod().equals("GET")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            Map<String, String> params = params(ex);
+            int limit = params.containsKey("limit") ? intParam(params, "limit") : 20;
+            if (limit < 1 || limit > MAX_PAGE) {
+                throw new IllegalArgumentException("Parameter 'limit' must be between 1 and " + MAX_PAGE + ".");
+            }
+            StringBuilder json = new StringBuilder("[");
+            for (RankedIndex.Match m : library.rankBooks(required(params, "q"), limit)) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                appendBook(json, m.book).setLength(json.length() - 1);
+                json.append(",\"score\":").append(String.format(Locale.ROOT, "%.4f", m.score)).append('}');
+            }
+            send(ex, 200, json.append(']').toString());
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void handleBorrowers(HttpExchange ex) throws IOException {
+        try {
+            String[] path = pathParts(ex);
+            if (path.length != 3 || !ex.getRequestMethod().equals("GET")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            String borrowerId = path[1];
+            if (path[2].equals("holds")) {
+                sendHolds(ex, borrowerId);
+                return;
+            }
+            if (path[2].equals("history")) {
+                sendHistory(ex, borrowerId);
+                return;
+            }
+            if (!path[2].equals("loans")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            // Not cached until registered, as registering sets the name.
+            Borrower borrower = borrowerManager.getBorrower(borrowerId);
+            send(ex, 200, borrower == null ? borrowerLoans(borrowerId, null)
+                    : library.borrowerView(borrowerId, ViewCache.JSON, () -> borrowerLoans(borrowerId, borrower)));
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    // Null if there is no such book.
+    private String bookDetails(int id) {
+        Book b = library.getBook(id);
+        if (b == null) {
+            return null;
+        }
+        StringBuilder json = appendBook(new StringBuilder(), b);
+        json.setLength(json.length() - 1);
+        json.append(",\"loans\":[");
+        boolean first = true;
+        for (BorrowRecord br : library.getBorrowRecords(id)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendRecord(json, id, br);
+        }
+        return json.append("]}").toString();
+    }
+
+    private String borrowerLoans(String borrowerId, Borrower borrower) {
+        StringBuilder json = new StringBuilder("{\"borrowerId\":").append(quote(borrowerId))
+                .append(",\"name\":").append(borrower != null ? quote(borrower.getName()) : "null")
+                .append(",\"loans\":[");
+        boolean first = true;
+        for (LoanIndex.Loan loan : library.loansOf(borrowerId)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"bookId\":").append(loan.bookId).append(",\"record\":");
+            appendRecord(json, loan.bookId, loan.record).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private void sendHolds(HttpExchange ex, String borrowerId) throws IOException {
+        StringBuilder json = new StringBuilder("{\"borrowerId\":").append(quote(borrowerId)).append(",\"holds\":[");
+        boolean first = true;
+        for (Holds.Status h : library.holdsOf(borrowerId)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"bookId\":").append(h.bookId);
+            if (h.copy > 0) {
+                json.append(",\"ready\":true,\"copy\":").append(h.copy)
+                        .append(",\"barcode\":").append(Book.barcodeOf(h.bookId, h.copy))
+                        .append(",\"readyUntil\":\"").append(h.readyUntil).append('"');
+            } else {
+                json.append(",\"ready\":false,\"position\":").append(h.position);
+            }
+            json.append('}');
+        }
+        send(ex, 200, json.append("]}").toString());
+    }
+
+    private void sendHistory(HttpExchange ex, String borrowerId) throws IOException {
+        StringBuilder json = new StringBuilder("{\"borrowerId\":").append(quote(borrowerId)).append(",\"loans\":[");
+        boolean first = true;
+        for (HistoryArchive.Entry e : library.historyOf(borrowerId)) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"bookId\":").append(e.bookId)
+                    .append(",\"issueDate\":\"").append(e.issueDate)
+                    .append("\",\"dueDate\":\"").append(e.dueDate)
+                    .append("\",\"returnDate\":\"").append(e.returnDate)
+                    .append("\",\"finePaise\":").append(e.fine).append('}');
+        }
+        send(ex, 200, json.append("]}").toString());
+    }
+
+    private void handleHistory(HttpExchange ex) throws IOException {
+        try {
+            String[] path = pathParts(ex);
+            if (path.length != 2 || !ex.getRequestMethod().equals("GET")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            if (!admin(ex)) {
+                return;
+            }
+            StringBuilder json = new StringBuilder();
+            boolean first = true;
+            if (path[1].equals("top")) {
+                Map<String, String> params = params(ex);
+                int limit = params.containsKey("limit") ? intParam(params, "limit") : 10;
+                if (limit < 1 || limit > MAX_PAGE) {
+                    throw new IllegalArgumentException("Parameter 'limit' must be between 1 and " + MAX_PAGE + ".");
+                }
+                json.append("{\"books\":[");
+                for (HistoryArchive.Count c : library.mostBorrowed(limit)) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append("{\"bookId\":").append(c.bookId).append(",\"loans\":").append(c.loans).append('}');
+                }
+            } else if (path[1].equals("fines")) {
+                json.append("{\"months\":[");
+                for (Map.Entry<YearMonth, Long> e : library.monthlyFines().entrySet()) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append("{\"month\":\"").append(e.getKey())
+                            .append("\",\"finePaise\":").append(e.getValue()).append('}');
+                }
+            } else {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            send(ex, 200, json.append("]}").toString());
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void handleOverdue(HttpExchange ex) throws IOException {
+        try {
+            if (pathParts(ex).length != 1 || !ex.getRequestMethod().equals("GET")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            if (!admin(ex)) {
+                return;
+            }
+            StringBuilder json = new StringBuilder("[");
+            for (LoanIndex.Loan loan : library.overdueLoans()) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append("{\"bookId\":").append(loan.bookId).append(",\"record\":");
+                appendRecord(json, loan.bookId, loan.record).append('}');
+            }
+            send(ex, 200, json.append(']').toString());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void handleCirculation(HttpExchange ex) throws IOException {
+        try {
+            if (pathParts(ex).length != 1 || !ex.getRequestMethod().equals("POST")) {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            if (!admin(ex)) {
+                return;
+            }
+            List<Circulation.Op> ops = new ArrayList<>();
+            for (String item : required(params(ex), "ops").split(",")) {
+                String[] parts = item.trim().split(":");
+                if (parts.length != 3 || !(parts[0].equals("issue") || parts[0].equals("return"))) {
+                    throw new IllegalArgumentException("Each op must be issue:bookId:borrowerId or return:bookId:borrowerId.");
+                }
+                int bookId;
+                try {
+                    bookId = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Book ID must be a number.");
+                }
+                if (!parts[2].matches("\\d{3}")) {
+                    throw new IllegalArgumentException("Borrower ID must be exactly 3 digits (example: 101, 007).");
+                }
+                ops.add(parts[0].equals("issue") ? Circulation.Op.issue(bookId, parts[2])
+                        : Circulation.Op.ret(bookId, parts[2]));
+            }
+
+            List<Circulation.Result> results = library.circulate(ops);
+            boolean committed = Circulation.committed(results);
+            StringBuilder json = new StringBuilder("{\"committed\":").append(committed).append(",\"results\":[");
+            for (int i = 0; i < results.size(); i++) {
+                Circulation.Op op = ops.get(i);
+                Circulation.Result r = results.get(i);
+                if (committed && op.kind == Circulation.Kind.ISSUE) {
+                    borrowerManager.getOrCreateBorrower(op.borrowerId, "Unknown");
+                }
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append("{\"op\":\"").append(op.kind.name().toLowerCase())
+                        .append("\",\"bookId\":").append(op.bookId)
+                        .append(",\"borrowerId\":").append(quote(op.borrowerId))
+                        .append(",\"status\":\"").append(r.outcome).append('"');
+                if (r.record != null) {
+                    appendRecord(json.append(",\"record\":"), op.bookId, r.record);
+                }
+                if (r.isOk() && op.kind == Circulation.Kind.RETURN) {
+                    appendHeldFor(json.append(",\"finePaise\":").append(r.fine), r);
+                }
+                json.append('}');
+            }
+            send(ex, committed ? 200 : 409, json.append("]}").toString());
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    private void handleBranches(HttpExchange ex) throws IOException {
+        try {
+            String[] path = pathParts(ex);
+            if (path.length >= 3 && network.branch(path[1]) != null) {
+                routeToBranch(ex, path[1], path[2]);
+                return;
+            }
+            if (!ex.getRequestMethod().equals("GET")) {
+                error(ex, 405, "Method not allowed.");
+                return;
+            }
+            StringBuilder json = new StringBuilder();
+            boolean first = true;
+            if (path.length == 1) {
+                json.append("{\"branches\":[");
+                for (String name : network.names()) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append("{\"name\":").append(quote(name))
+                            .append(",\"books\":").append(network.branch(name).size()).append('}');
+                }
+            } else if (path.length == 2 && path[1].equals("search")) {
+                String q = params(ex).getOrDefault("q", "");
+                json.append("{\"results\":[");
+                for (BranchNetwork.Hit hit : network.search(q)) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    appendBook(json.append("{\"branch\":").append(quote(hit.branch)).append(",\"book\":"), hit.book)
+                            .append('}');
+                }
+            } else if (path.length == 3 && path[1].equals("availability")) {
+                int bookId;
+                try {
+                    bookId = Integer.parseInt(path[2]);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Book ID must be a number.");
+                }
+                json.append("{\"bookId\":").append(bookId).append(",\"branches\":[");
+                for (BranchNetwork.Availability a : network.availability(bookId)) {
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append("{\"branch\":").append(quote(a.branch))
+                            .append(",\"availableCopies\":").append(a.available)
+                            .append(",\"totalCopies\":").append(a.total)
+                            .append(",\"holdsWaiting\":").append(a.waiting).append('}');
+                }
+            } else {
+                error(ex, 404, "Not found.");
+                return;
+            }
+            send(ex, 200, json.append("]}").toString());
+        } catch (IllegalArgumentException e) {
+            error(ex, 400, e.getMessage());
+        } catch (Exception e) {
+            error(ex, 500, "Server error: " + e.getMessage());
+        }
+    }
+
+    // /branches/{name}/<route>...: the branch's own server handles the rest of the path.
+    private void routeToBranch(HttpExchange ex, String name, String route) throws IOException {
+        LibraryServer branch = branchServers.computeIfAbsent(name,
+                n -> new LibraryServer(network.branch(n), borrowerManager, userManager, null, prefix + 2));
+        switch (route) {
+            case "books":
+                branch.handleBooks(ex);
+                break;
+            case "copies":
+                branch.handleCopies(ex);
+                break;
+            case "search":
+                branch.handleSearch(ex);
+                break;
+            case "borrowers":
+                branch.handleBorrowers(ex);
+                break;
+            case "overdue":
+                branch.handleOverdue(ex);
+                break;
+            case "history":
+                branch.handleHistory(ex);
+                break;
+            case "circulation":
+                branch.handleCirculation(ex);
+                break;
+            case "metrics":
+                branch.handleMetrics(ex);
+                break;
+            default:
+                error(ex, 404, "Not found.");
+        }
+    }
+
+    private void handleMetrics(HttpExchange ex) throws IOException {
+        if (pathParts(ex).length != 1 || !ex.getRequestMethod().equals("GET")) {
+            error(ex, 404, "Not found.");
+            return;
+        }
+        if (!admin(ex)) {
+            return;
+        }
+        byte[] bytes = library.getMetrics().dump().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static StringBuilder appendBook(StringBuilder json, Book b) {
+        return json.append("{\"id\":").append(b.getId())
+                .append(",\"title\":").append(quote(b.getTitle()))
+                .append(",\"author\":").append(quote(b.getAuthor()))
+                .append(",\"availableCopies\":").append(b.getAvailableCopies())
+                .append(",\"totalCopies\":").append(b.getTotalCopies())
+                .append('}');
+    }
+
+    private static StringBuilder appendHeldFor(StringBuilder json, Circulation.Result result) {
+        Holds.Hold h = result.hold;
+        if (h == null) {
+            return json;
+        }
+        return json.append(",\"heldFor\":{\"borrowerId\":").append(quote(h.borrowerId))
+                .append(",\"copy\":").append(h.copy)
+                .append(",\"barcode\":").append(Book.barcodeOf(h.bookId, h.copy))
+                .append(",\"readyUntil\":\"").append(h.readyUntil).append("\"}");
+    }
+
+    private static StringBuilder appendRecord(StringBuilder json, int bookId, BorrowRecord br) {
+        return json.append("{\"borrowerId\":").append(quote(br.getBorrowerId()))
+                .append(",\"copy\":").append(br.getCopy())
+                .append(",\"barcode\":").append(Book.barcodeOf(bookId, br.getCopy()))
+                .append(",\"issueDate\":\"").append(br.getIssueDate())
+                .append("\",\"dueDate\":\"").append(br.getDueDate())
+                .append("\"}");
+    }
+
+    static String quote(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    // Path segments after this server's prefix (/branches/{name} for a branch).
+    private String[] pathParts(HttpExchange ex) {
+        String path = ex.getRequestURI().getPath();
+        return Arrays.stream(path.split("/")).filter(p -> !p.isEmpty()).skip(prefix).toArray(String[]::new);
+    }
+
+    private static Map<String, String> params(HttpExchange ex) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(ex.getRequestURI().getRawQuery(), params);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                body.write(buf, 0, n);
+            }
+        }
+        parseForm(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) throws UnsupportedEncodingException {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8").trim());
+            }
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter '" + name + "'.");
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        try {
+            return Integer.parseInt(required(params, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be a number.");
+        }
+    }
+
+    private static String borrowerIdParam(Map<String, String> params) {
+        String id = required(params, "borrowerId");
+        if (!id.matches("\\d{3}")) {
+            throw new IllegalArgumentException("Borrower ID must be exactly 3 digits (example: 101, 007).");
+        }
+        return id;
+    }
+
+    private static void error(HttpExchange ex, int status, String message) throws IOException {
+        send(ex, status, "{\"error\":" + quote(message) + "}");
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* ---------------- STRESS TEST ---------------- */
+// Many desks issuing, returning, updating and deleting on a small catalog at
+// once, so that most operations collide on the same books. When they stop,
+// the library must still hold together:
+//
+//   - no book has more loans than copies, or two loans on one copy
+//   - availableCopies + loans == totalCopies for every book
+//   - every borrower's loan index lists exactly the loans the books hold
+//   - a library reloaded from the same directory (snapshot plus journal)
+//     has the same books and loans
+//
+//   javac LibraryApp.java LibraryStressTest.java
+//   java LibraryStressTest [seconds] [threads]   (default: 5, twice the cores)
+//
+// Runs eager and lazy mode in turn, each in a temporary directory. Exits
+// with status 1 on the first broken invariant.
+public class LibraryStressTest {
+    private static final int BOOKS = 64;
+    private static final int MAX_COPIES = 5;
+    private static final int BORROWERS = 40;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 2 * Runtime.getRuntime().availableProcessors();
+        List<String> failures = new ArrayList<>();
+        for (boolean lazy : new boolean[]{false, true}) {
+            File dir = createTempDir();
+            try {
+                failures.addAll(run(dir, lazy, seconds, threads));
+            } finally {
+                deleteDir(dir);
+            }
+        }
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.out.println("FAIL " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("All invariants hold.");
+    }
+
+    private static List<String> run(File dir, boolean lazy, int seconds, int threads) throws Exception {
+        Library library = new Library(dir, lazy);
+        Random setup = new Random(1);
+        for (int id = 1; id <= BOOKS; id++) {
+            library.addBook(new Book(id, "Title " + id, "Author " + id, 1 + setup.nextInt(MAX_COPIES)));
+        }
+        if (lazy) {
+            library.checkpoint(); // so the books come from the mapping
+            library = new Library(dir, true);
+        }
+
+        Library lib = library;
+        AtomicLong issued = new AtomicLong();
+        AtomicLong returned = new AtomicLong();
+        AtomicLong updated = new AtomicLong();
+        AtomicLong deleted = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        ExecutorService desks = Executors.newFixedThreadPool(threads);
+        List<Future<?>> running = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            running.add(desks.submit(() -> {
+                Random rnd = new Random(seed);
+                while (System.nanoTime() < end) {
+                    int id = 1 + rnd.nextInt(BOOKS);
+                    String borrower = String.valueOf(100 + rnd.nextInt(BORROWERS));
+                    int op = rnd.nextInt(100);
+                    if (op < 45) {
+                        if (lib.issueCopy(id, borrower).isOk()) {
+                            issued.incrementAndGet();
+                        }
+                    } else if (op < 85) {
+                        List<LoanIndex.Loan> loans = lib.loansOf(borrower);
+                        if (!loans.isEmpty()) {
+                            LoanIndex.Loan loan = loans.get(rnd.nextInt(loans.size()));
+                            if (lib.returnCopy(loan.bookId, borrower).isOk()) {
+                                returned.incrementAndGet();
+                            }
+                        }
+                    } else if (op < 97) {
+                        if (lib.updateBook(id, "Title " + id, "Author " + id,
+                                rnd.nextInt(MAX_COPIES + 1)) == Outcome.OK) {
+                            updated.incrementAndGet();
+                        }
+                    } else if (lib.deleteBook(id) == Outcome.OK) {
+                        deleted.incrementAndGet();
+                        lib.addBook(new Book(id, "Title " + id, "Author " + id, 1 + rnd.nextInt(MAX_COPIES)));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : running) {
+            f.get(); // rethrows anything a desk threw
+        }
+        desks.shutdown();
+
+        String mode = lazy ? "lazy" : "eager";
+        System.out.printf("%s: %d threads, %,d issues, %,d returns, %,d updates, %,d deletes in %d s%n",
+                mode, threads, issued.get(), returned.get(), updated.get(), deleted.get(), seconds);
+        List<String> failures = new ArrayList<>();
+        check(mode, lib, failures);
+        Library reloaded = new Library(dir, lazy);
+        check(mode + " reloaded", reloaded, failures);
+        compare(mode, lib, reloaded, failures);
+        return failures;
+    }
+
+    private static void check(String mode, Library lib, List<String> failures) {
+        Map<String, Set<Long>> held = new HashMap<>(); // borrower -> barcodes, from the books
+        for (Book b : lib.listBooks()) {
+            List<BorrowRecord> records = lib.getBorrowRecords(b.getId());
+            Set<Integer> copies = new HashSet<>();
+            for (BorrowRecord r : records) {
+                if (!copies.add(r.getCopy()) || r.getCopy() < 1 || r.getCopy() > b.getTotalCopies()) {
+                    failures.add(mode + ": book " + b.getId() + " lends copy " + r.getCopy() + " twice or out of range");
+                }
+                held.computeIfAbsent(r.getBorrowerId(), k -> new HashSet<>()).add(b.barcode(r.getCopy()));
+            }
+            if (records.size() > b.getTotalCopies() || b.getAvailableCopies() < 0) {
+                failures.add(mode + ": book " + b.getId() + " oversold: " + records.size() + " loans, "
+                        + b.getTotalCopies() + " copies");
+            }
+            if (b.getAvailableCopies() + records.size() != b.getTotalCopies()) {
+                failures.add(mode + ": book " + b.getId() + " has " + b.getAvailableCopies() + " available + "
+                        + records.size() + " loaned != " + b.getTotalCopies() + " total");
+            }
+        }
+        for (int i = 0; i < BORROWERS; i++) {
+            String borrower = String.valueOf(100 + i);
+            Set<Long> indexed = new HashSet<>();
+            for (LoanIndex.Loan loan : lib.loansOf(borrower)) {
+                indexed.add(Book.barcodeOf(loan.bookId, loan.record.getCopy()));
+            }
+            Set<Long> expected = held.getOrDefault(borrower, Collections.emptySet());
+            if (!indexed.equals(expected)) {
+                failures.add(mode + ": loan index of " + borrower + " lists " + new TreeSet<>(indexed)
+                        + ", books hold " + new TreeSet<>(expected));
+            }
+        }
+    }
+
+    private static void compare(String mode, Library live, Library reloaded, List<String> failures) {
+        if (live.size() != reloaded.size()) {
+            failures.add(mode + ": " + live.size() + " books live, " + reloaded.size() + " after reload");
+        }
+        for (Book b : live.listBooks()) {
+            Book r = reloaded.getBook(b.getId());
+            if (r == null || r.getTotalCopies() != b.getTotalCopies()
+                    || !loans(live, b.getId()).equals(loans(reloaded, b.getId()))) {
+                failures.add(mode + ": book " + b.getId() + " differs after reload");
+            }
+        }
+    }
+
+    private static Set<String> loans(Library lib, int bookId) {
+        Set<String> loans = new HashSet<>();
+        for (BorrowRecord r : lib.getBorrowRecords(bookId)) {
+            loans.add(r.getCopy() + ":" + r.getBorrowerId() + ":" + r.getIssueDate() + ":" + r.getDueDate());
+        }
+        return loans;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("library-stress", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    deleteDir(f);
+                } else {
+                    f.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* ---------------- LOAN INDEX ---------------- */
+// Secondary index: borrower ID -> that borrower's outstanding loans.
+class LoanIndex {
+    static class Loan {
+        final int bookId;
+        final BorrowRecord record;
+
+        Loan(int bookId, BorrowRecord record) {
+            this.bookId = bookId;
+            this.record = record;
+        }
+    }
+
+    // Per-borrower lists are replaced rather than mutated, so loansOf can hand
+    // out the current list without copying while other desks issue/return.
+    private final ConcurrentHashMap<String, List<Loan>> loansByBorrower = new ConcurrentHashMap<>();
+
+    public void add(int bookId, BorrowRecord record) {
+        Loan loan = new Loan(bookId, record);
+        loansByBorrower.compute(record.getBorrowerId(), (k, loans) -> {
+            List<Loan> updated = loans == null ? new ArrayList<>(1) : new ArrayList<>(loans);
+            updated.add(loan);
+            return Collections.unmodifiableList(updated);
+        });
+    }
+
+    // Matches by book and copy number: in lazy mode the indexed record and the
+    // one the book returns can be different objects for the same loan.
+    public void remove(int bookId, BorrowRecord record) {
+        loansByBorrower.computeIfPresent(record.getBorrowerId(), (k, loans) -> {
+            List<Loan> updated = new ArrayList<>(loans);
+            for (int i = 0; i < updated.size(); i++) {
+                Loan loan = updated.get(i);
+                if (loan.bookId == bookId && loan.record.getCopy() == record.getCopy()) {
+                    updated.remove(i);
+                    break;
+                }
+            }
+            return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+        });
+    }
+
+    public List<Loan> loansOf(String borrowerId) {
+        List<Loan> loans = loansByBorrower.get(borrowerId);
+        return loans == null ? Collections.<Loan>emptyList() : loans;
+    }
+
+    public void clear() {
+        loansByBorrower.clear();
+    }
+}
@@ -0,0 +1,201 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+/* ---------------- LOAN TABLE ---------------- */
+// A library's active loans packed into parallel primitive columns: borrower,
+// issue and due epoch day, copy number. A loan costs 12 bytes of columns
+// instead of a String and two LocalDates, and the GC never traces them.
+// Freed slots go on a stack and are reused before the table grows.
+//
+// A lent BorrowRecord is only a view of its slot: it keeps the slot number
+// and drops its own fields. When the loan ends the table copies the values
+// back into the record before freeing the slot, so anyone still holding it
+// (a journal entry waiting to be written, a Result, an index) keeps seeing
+// that loan and never the slot's next tenant.
+//
+// Writers take the lock exclusively. Readers use optimistic reads, so they
+// do not contend with each other or with issue/return of other loans.
+final class LoanTable {
+    // Borrower IDs are three digits by rule and pack as 0..999; any other
+    // string gets a negative code from a side dictionary.
+    private static final String[] THREE_DIGITS = new String[1000];
+
+    static {
+        for (int i = 0; i < THREE_DIGITS.length; i++) {
+            THREE_DIGITS[i] = String.format("%03d", i);
+        }
+    }
+
+    static final int BORROWER = 0;
+    static final int ISSUE_DAY = 1;
+    static final int DUE_DAY = 2;
+    static final int COPY = 3;
+    /** read() result for a record that no longer views a slot; its own fields hold the values. */
+    static final long RELEASED = Long.MIN_VALUE;
+
+    private final StampedLock lock = new StampedLock();
+    private short[] borrowers = new short[256];
+    private int[] issueDays = new int[256];
+    private int[] dueDays = new int[256];
+    private short[] copies = new short[256];
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int highWater; // slots ever handed out
+    private int size;
+
+    private String[] otherBorrowers = new String[8];
+    private int otherCount;
+    private final Map<String, Short> otherCodes = new HashMap<>();
+
+    /** Moves record's values into a free slot and makes record a view of it. */
+    void attach(BorrowRecord record) {
+        String borrowerId = record.getBorrowerId();
+        int issueDay = (int) record.getIssueDate().toEpochDay();
+        int dueDay = (int) record.getDueDate().toEpochDay();
+        int copy = record.getCopy();
+        long stamp = lock.writeLock();
+        try {
+            int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+            borrowers[slot] = encode(borrowerId);
+            issueDays[slot] = issueDay;
+            dueDays[slot] = dueDay;
+            copies[slot] = (short) copy;
+            record.attach(this, slot);
+            size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Copies the values of record's slot back into it and frees the slot. */
+    void release(BorrowRecord record) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = record.slot;
+            if (record.table != this) {
+                return;
+            }
+            record.detach(decode(borrowers[slot]), LocalDate.ofEpochDay(issueDays[slot]),
+                    LocalDate.ofEpochDay(dueDays[slot]), copies[slot]);
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            size--;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * One column of record's loan: BORROWER (a code for borrowerId()),
+     * ISSUE_DAY, DUE_DAY or COPY; RELEASED if record is no longer a view.
+     */
+    long read(BorrowRecord record, int column) {
+        long stamp = lock.tryOptimisticRead();
+        long value = readColumn(record, column);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return readColumn(record, column);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Under an optimistic read the slot may be stale; validate() discards the result.
+    private long readColumn(BorrowRecord record, int column) {
+        int slot = record.slot;
+        if (record.table != this) {
+            return RELEASED;
+        }
+        switch (column) {
+            case BORROWER:
+                short[] b = borrowers;
+                return slot < b.length ? b[slot] : RELEASED;
+            case ISSUE_DAY:
+                int[] issued = issueDays;
+                return slot < issued.length ? issued[slot] : RELEASED;
+            case DUE_DAY:
+                int[] due = dueDays;
+                return slot < due.length ? due[slot] : RELEASED;
+            default:
+                short[] c = copies;
+                return slot < c.length ? c[slot] : RELEASED;
+        }
+    }
+
+    /** The borrower ID for a BORROWER code. */
+    String borrowerId(long code) {
+        if (code >= 0) {
+            return THREE_DIGITS[(int) code];
+        }
+        long stamp = lock.readLock();
+        try {
+            return decode((short) code);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Loans in the table. */
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Callers hold the write lock.
+    private int nextSlot() {
+        if (highWater == copies.length) {
+            int n = copies.length * 2;
+            borrowers = Arrays.copyOf(borrowers, n);
+            issueDays = Arrays.copyOf(issueDays, n);
+            dueDays = Arrays.copyOf(dueDays, n);
+            copies = Arrays.copyOf(copies, n);
+        }
+        return highWater++;
+    }
+
+    private short encode(String borrowerId) {
+        if (isThreeDigits(borrowerId)) {
+            return (short) ((borrowerId.charAt(0) - '0') * 100 + (borrowerId.charAt(1) - '0') * 10
+                    + borrowerId.charAt(2) - '0');
+        }
+        Short code = otherCodes.get(borrowerId);
+        if (code == null) {
+            if (otherCount == Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many non-standard borrower IDs");
+            }
+            if (otherCount == otherBorrowers.length) {
+                otherBorrowers = Arrays.copyOf(otherBorrowers, otherCount * 2);
+            }
+            otherBorrowers[otherCount] = borrowerId;
+            code = (short) (-1 - otherCount++);
+            otherCodes.put(borrowerId, code);
+        }
+        return code;
+    }
+
+    private static boolean isThreeDigits(String s) {
+        if (s.length() != 3) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(short code) {
+        return code >= 0 ? THREE_DIGITS[code] : otherBorrowers[-1 - code];
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/* ---------------- MAPPED CATALOG ---------------- */
+// library.bin version 1: fixed-width regions plus a string heap, so a book
+// can be read straight out of a memory mapping without parsing the file.
+//
+//   0   int magic, short version, short reserved
+//   8   long journalSeq
+//   16  int bookCount, int loanCount, long holdsStart
+//   32  records:   bookCount x [int id, int titleOff, int authorOff,
+//                               int totalCopies, int firstLoan, int loanCount]
+//       by ID:     bookCount x [int id, int slot]            (sorted by id)
+//       loans:     loanCount x [int borrowerOff, int issueEpochDay, int dueEpochDay, int copy]
+//       heap:      strings as [u16 length][UTF-8 bytes], offsets relative to heap start
+//       holds:     int holdCount, then per hold [int bookId, string borrowerId,
+//                  int placedEpochDay, int copy, int readyUntilEpochDay], each
+//                  book's ready holds first, then its waiting ones in line order
+class MappedCatalog {
+    static final short VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 24;
+    private static final int BY_ID_SIZE = 8;
+    private static final int LOAN_SIZE = 16;
+
+    private final MappedByteBuffer map;
+    private final long journalSeq;
+    private final int bookCount;
+    private final int loanCount;
+    private final int byIdStart;
+    private final int loansStart;
+    private final int heapStart;
+    private final int holdsStart;
+
+    private MappedCatalog(MappedByteBuffer map) {
+        this.map = map;
+        this.journalSeq = map.getLong(8);
+        this.bookCount = map.getInt(16);
+        this.loanCount = map.getInt(20);
+        this.byIdStart = HEADER_SIZE + bookCount * RECORD_SIZE;
+        this.loansStart = byIdStart + bookCount * BY_ID_SIZE;
+        this.heapStart = loansStart + loanCount * LOAN_SIZE;
+        this.holdsStart = (int) map.getLong(24);
+    }
+
+    static MappedCatalog open(File file, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file.getName() + " is too large to map");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt(0) != magic || map.getShort(4) != VERSION) {
+                throw new IOException(file.getName() + " is not a version " + VERSION + " catalog");
+            }
+            return new MappedCatalog(map);
+        }
+    }
+
+    long getJournalSeq() {
+        return journalSeq;
+    }
+
+    int size() {
+        return bookCount;
+    }
+
+    int getLoanCount() {
+        return loanCount;
+    }
+
+    int id(int slot) {
+        return map.getInt(HEADER_SIZE + slot * RECORD_SIZE);
+    }
+
+    String title(int slot) {
+        return string(map.getInt(HEADER_SIZE + slot * RECORD_SIZE + 4));
+    }
+
+    String author(int slot) {
+        return string(map.getInt(HEADER_SIZE + slot * RECORD_SIZE + 8));
+    }
+
+    int totalCopies(int slot) {
+        return map.getInt(HEADER_SIZE + slot * RECORD_SIZE + 12);
+    }
+
+    int loanCount(int slot) {
+        return map.getInt(HEADER_SIZE + slot * RECORD_SIZE + 20);
+    }
+
+    BorrowRecord loan(int slot, int k) {
+        int at = loansStart + (map.getInt(HEADER_SIZE + slot * RECORD_SIZE + 16) + k) * LOAN_SIZE;
+        return new BorrowRecord(string(map.getInt(at)),
+                LocalDate.ofEpochDay(map.getInt(at + 4)), LocalDate.ofEpochDay(map.getInt(at + 8)),
+                map.getInt(at + 12));
+    }
+
+    /** Slot holding book id, or -1. Binary search over the by-ID region. */
+    int find(int id) {
+        int lo = 0;
+        int hi = bookCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midId = map.getInt(byIdStart + mid * BY_ID_SIZE);
+            if (midId < id) {
+                lo = mid + 1;
+            } else if (midId > id) {
+                hi = mid - 1;
+            } else {
+                return map.getInt(byIdStart + mid * BY_ID_SIZE + 4);
+            }
+        }
+        return -1;
+    }
+
+    /** Holds stored with the snapshot, in queue order. */
+    List<Holds.Hold> holds() {
+        int at = holdsStart;
+        int count = map.getInt(at);
+        at += 4;
+        List<Holds.Hold> holds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int bookId = map.getInt(at);
+            String borrowerId = stringAt(at + 4);
+            at += 4 + 2 + (map.getShort(at + 4) & 0xFFFF);
+            Holds.Hold h = new Holds.Hold(bookId, borrowerId, LocalDate.ofEpochDay(map.getInt(at)));
+            h.copy = map.getInt(at + 4);
+            if (h.copy > 0) {
+                h.readyUntil = LocalDate.ofEpochDay(map.getInt(at + 8));
+            }
+            at += 12;
+            holds.add(h);
+        }
+        return holds;
+    }
+
+    Book materialize(int slot) {
+        int loans = loanCount(slot);
+        List<BorrowRecord> records = new ArrayList<>(loans);
+        for (int k = 0; k < loans; k++) {
+            records.add(loan(slot, k));
+        }
+        return new Book(id(slot), title(slot), author(slot), totalCopies(slot), records);
+    }
+
+    private String string(int offset) {
+        return stringAt(heapStart + offset);
+    }
+
+    private String stringAt(int at) {
+        int length = map.getShort(at) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = map.duplicate();
+        view.position(at + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Writes books in iteration order. The Iterable is walked twice (once to
+     * size the regions, once to write them) so callers can materialize books
+     * on the fly instead of holding them all.
+     */
+    static void write(File file, int magic, Iterable<Book> books, Collection<Holds.Hold> holds, long journalSeq)
+            throws IOException {
+        int bookCount = 0;
+        int loanCount = 0;
+        for (Book b : books) {
+            bookCount++;
+            loanCount += b.getBorrowRecords().size();
+        }
+        long[] byId = new long[bookCount];
+        long byIdStart = HEADER_SIZE + (long) bookCount * RECORD_SIZE;
+        long loansStart = byIdStart + (long) bookCount * BY_ID_SIZE;
+        long heapStart = loansStart + (long) loanCount * LOAN_SIZE;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Region records = new Region(channel, HEADER_SIZE);
+            Region loans = new Region(channel, loansStart);
+            Region heap = new Region(channel, heapStart);
+            Map<String, Integer> borrowerOffsets = new HashMap<>();
+
+            int slot = 0;
+            int loan = 0;
+            for (Book b : books) {
+                if (slot == bookCount) {
+                    throw new IOException("Catalog changed while being written");
+                }
+                List<BorrowRecord> bookLoans = b.getBorrowRecords();
+                byId[slot] = ((long) b.getId() << 32) | slot;
+                records.putInt(b.getId());
+                records.putInt(heap.putString(b.getTitle()));
+                records.putInt(heap.putString(b.getAuthor()));
+                records.putInt(b.getTotalCopies());
+                records.putInt(loan);
+                records.putInt(bookLoans.size());
+                for (BorrowRecord br : bookLoans) {
+                    Integer off = borrowerOffsets.get(br.getBorrowerId());
+                    if (off == null) {
+                        off = heap.putString(br.getBorrowerId());
+                        borrowerOffsets.put(br.getBorrowerId(), off);
+                    }
+                    loans.putInt(off);
+                    loans.putInt((int) br.getIssueDate().toEpochDay());
+                    loans.putInt((int) br.getDueDate().toEpochDay());
+                    loans.putInt(br.getCopy());
+                    loan++;
+                }
+                slot++;
+            }
+            if (slot != bookCount || loan != loanCount) {
+                throw new IOException("Catalog changed while being written");
+            }
+
+            Arrays.sort(byId);
+            Region sorted = new Region(channel, byIdStart);
+            for (long entry : byId) {
+                sorted.putInt((int) (entry >> 32));
+                sorted.putInt((int) entry);
+            }
+
+            heap.flush();
+            long holdsStart = heapStart + heap.written;
+            Region held = new Region(channel, holdsStart);
+            held.putInt(holds.size());
+            for (Holds.Hold h : holds) {
+                held.putInt(h.bookId);
+                held.putString(h.borrowerId);
+                held.putInt((int) h.placed.toEpochDay());
+                held.putInt(h.copy);
+                held.putInt(h.readyUntil != null ? (int) h.readyUntil.toEpochDay() : 0);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(magic).putShort(VERSION).putShort((short) 0)
+                    .putLong(journalSeq).putInt(bookCount).putInt(loanCount).putLong(holdsStart);
+            header.flip();
+            channel.write(header, 0);
+
+            records.flush();
+            sorted.flush();
+            loans.flush();
+            held.flush();
+            channel.force(true); // durable before the caller renames it into place
+        }
+    }
+
+    /* Sequential writer for one region of the file, flushed with positional writes. */
+    private static class Region {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        private long position;
+        private int written; // bytes appended so far, used as heap offsets
+
+        Region(FileChannel channel, long start) {
+            this.channel = channel;
+            this.position = start;
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() < n) {
+                flush();
+            }
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+            written += 4;
+        }
+
+        int putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long to store (" + bytes.length + " bytes)");
+            }
+            int offset = written;
+            ensure(2);
+            buf.putShort((short) bytes.length);
+            int off = 0;
+            while (off < bytes.length) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, n);
+                off += n;
+            }
+            written += 2 + bytes.length;
+            return offset;
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+            buf.clear();
+        }
+    }
+}
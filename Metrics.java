@@ -0,0 +1,304 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/* ---------------- METRICS ---------------- */
+// Per-operation call counts and latency histograms, plus a few gauges, for
+// one Library. Recording is lock-free. Everything can be read through JMX
+// (domain "library") or as a text table from dump().
+//
+// Public because JMX only introspects public MXBean interfaces.
+public class Metrics {
+    public interface OperationMXBean {
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+    }
+
+    public interface LibraryMXBean {
+        long getBooks();
+
+        long getActiveLoans();
+
+        long getSnapshotBytesWritten();
+
+        long getJournalBytesWritten();
+
+        String dump();
+    }
+
+    public interface CacheMXBean {
+        long getHits();
+
+        long getMisses();
+
+        long getInvalidations();
+
+        long getEvictions();
+
+        int getSize();
+
+        double getHitRate();
+    }
+
+    public interface CompactionMXBean {
+        long getFailures();
+
+        String getLastError(); // null once a compaction succeeds again
+    }
+
+    /*
+     * HDR-style log-linear histogram of nanosecond latencies: values below 16
+     * are exact, above that each power of two is split into 16 buckets, so
+     * any recorded value is within 1/16 (about 6%) of its bucket's bound.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        static int bucketOf(long v) {
+            if (v < SUB_BUCKETS) {
+                return (int) Math.max(v, 0);
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Largest value that falls in the bucket.
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucketOf(nanos));
+            total.increment();
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                // retry
+            }
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        double mean() {
+            long n = total.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts.get(b);
+                if (seen >= target) {
+                    return Math.min(upperBound(b), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    public static final class Operation implements OperationMXBean {
+        final String name;
+        private final Histogram histogram = new Histogram();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /** Records the time since start, a System.nanoTime() value. */
+        void record(long start) {
+            histogram.record(System.nanoTime() - start);
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.count();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.mean() / 1e3;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.percentile(0.50) / 1e3;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return histogram.percentile(0.90) / 1e3;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.percentile(0.99) / 1e3;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return histogram.percentile(0.999) / 1e3;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.max() / 1e3;
+        }
+    }
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private final Map<String, CacheMXBean> caches = new LinkedHashMap<>();
+    private final Map<String, CompactionMXBean> compactions = new LinkedHashMap<>();
+    final LongAdder snapshotBytes = new LongAdder();
+    private LongSupplier books = () -> 0;
+    private LongSupplier activeLoans = () -> 0;
+    private LongSupplier journalBytes = () -> 0;
+
+    /** Operations are created up front, before any recording starts. */
+    Operation operation(String name) {
+        return operations.computeIfAbsent(name, Operation::new);
+    }
+
+    /** Caches are added up front too, next to the operations. */
+    void cache(String name, CacheMXBean cache) {
+        caches.put(name, cache);
+    }
+
+    /** As are the compactions of the journals shown alongside. */
+    void compaction(String name, CompactionMXBean compaction) {
+        compactions.put(name, compaction);
+    }
+
+    void setGauges(LongSupplier books, LongSupplier activeLoans, LongSupplier journalBytes) {
+        this.books = books;
+        this.activeLoans = activeLoans;
+        this.journalBytes = journalBytes;
+    }
+
+    private final LibraryMXBean gauges = new LibraryMXBean() {
+        @Override
+        public long getBooks() {
+            return books.getAsLong();
+        }
+
+        @Override
+        public long getActiveLoans() {
+            return activeLoans.getAsLong();
+        }
+
+        @Override
+        public long getSnapshotBytesWritten() {
+            return snapshotBytes.sum();
+        }
+
+        @Override
+        public long getJournalBytesWritten() {
+            return journalBytes.getAsLong();
+        }
+
+        @Override
+        public String dump() {
+            return Metrics.this.dump();
+        }
+    };
+
+    /** Publishes the gauges and one MBean per operation on the platform MBean server. */
+    void register() throws JMException {
+        register("");
+    }
+
+    /** As register(), with the branch added to every name so shards do not collide. */
+    void register(String branch) throws JMException {
+        String suffix = branch.isEmpty() ? "" : ",branch=" + branch;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("library:type=Library" + suffix);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(gauges, name);
+        }
+        for (Operation op : operations.values()) {
+            name = new ObjectName("library:type=Operation,name=" + op.name + suffix);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(op, name);
+            }
+        }
+        for (Map.Entry<String, CacheMXBean> e : caches.entrySet()) {
+            name = new ObjectName("library:type=Cache,name=" + e.getKey() + suffix);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(e.getValue(), name);
+            }
+        }
+        for (Map.Entry<String, CompactionMXBean> e : compactions.entrySet()) {
+            name = new ObjectName("library:type=Compaction,name=" + e.getKey() + suffix);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(e.getValue(), name);
+            }
+        }
+    }
+
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("books: %,d | active loans: %,d | snapshot bytes: %,d | journal bytes: %,d%n",
+                gauges.getBooks(), gauges.getActiveLoans(), gauges.getSnapshotBytesWritten(),
+                gauges.getJournalBytesWritten()));
+        out.append(String.format("%-14s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean µs", "p50", "p90", "p99", "p99.9", "max"));
+        for (Operation op : operations.values()) {
+            out.append(String.format("%-14s %,10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    op.name, op.getCount(), op.getMeanMicros(), op.getP50Micros(), op.getP90Micros(),
+                    op.getP99Micros(), op.getP999Micros(), op.getMaxMicros()));
+        }
+        for (Map.Entry<String, CacheMXBean> e : caches.entrySet()) {
+            CacheMXBean c = e.getValue();
+            out.append(String.format("%-14s hits %,d | misses %,d | hit rate %.1f%% | invalidations %,d"
+                            + " | evictions %,d | size %,d%n", e.getKey(), c.getHits(), c.getMisses(),
+                    c.getHitRate() * 100, c.getInvalidations(), c.getEvictions(), c.getSize()));
+        }
+        for (Map.Entry<String, CompactionMXBean> e : compactions.entrySet()) {
+            CompactionMXBean c = e.getValue();
+            String error = c.getLastError();
+            out.append(String.format("%-14s compaction failures %,d%s%n", e.getKey(), c.getFailures(),
+                    error == null ? "" : " | failing: " + error));
+        }
+        return out.toString();
+    }
+}
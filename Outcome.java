@@ -0,0 +1,18 @@
+/* ---------------- OPERATION OUTCOME ---------------- */
+// Result codes for catalog and circulation operations. Front ends decide how
+// to present them, and the storage failures the domain classes throw as
+// UncheckedIOException; the domain classes never print.
+enum Outcome {
+    OK,
+    BOOK_NOT_FOUND,
+    DUPLICATE_ID,
+    NO_COPIES,
+    NOT_BORROWED,
+    INVALID_COPIES,  // copy count outside 0..Book.MAX_COPIES
+    COPY_NOT_FOUND,  // no copy with that barcode
+    COPY_ON_LOAN,    // that copy is out or set aside for a hold, or would be withdrawn while so
+    COPIES_AVAILABLE, // a hold was asked for but a copy can be issued now
+    ALREADY_HELD,
+    NO_HOLD,
+    ROLLED_BACK // valid on its own, undone because another item in its batch failed
+}
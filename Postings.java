@@ -0,0 +1,180 @@
+import java.util.Arrays;
+
+/* ---------------- POSTING LIST ---------------- */
+// Book IDs in ascending order, each with an int payload if the owner wants
+// one, kept in blocks of at most BLOCK entries. Finding an ID is a binary
+// search over the blocks' first IDs and then inside one block, so adding or
+// removing a posting shifts at most one block: its cost does not grow with
+// the number of books sharing the term. Only when a block splits or empties
+// does the table of blocks (a BLOCK-th of the list's length) move. IDs added
+// in ascending order (a load or an import) fill each block before starting
+// the next.
+final class Postings {
+    static final int BLOCK = 128;
+
+    interface Visitor {
+        void visit(int id, int value);
+    }
+
+    private static final class Block {
+        int[] ids;
+        int[] values; // null without payloads
+        int size;
+
+        Block(int capacity, boolean withValues) {
+            ids = new int[capacity];
+            values = withValues ? new int[capacity] : null;
+        }
+
+        void insert(int at, int id, int value) {
+            if (size == ids.length) {
+                int capacity = Math.min(BLOCK, size * 2);
+                ids = Arrays.copyOf(ids, capacity);
+                if (values != null) {
+                    values = Arrays.copyOf(values, capacity);
+                }
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            if (values != null) {
+                System.arraycopy(values, at, values, at + 1, size - at);
+                values[at] = value;
+            }
+            size++;
+        }
+
+        void delete(int at) {
+            size--;
+            System.arraycopy(ids, at + 1, ids, at, size - at);
+            if (values != null) {
+                System.arraycopy(values, at + 1, values, at, size - at);
+            }
+        }
+
+        // Moves the upper half into a new block.
+        Block split() {
+            int half = size / 2;
+            Block right = new Block(BLOCK, values != null);
+            right.size = size - half;
+            System.arraycopy(ids, half, right.ids, 0, right.size);
+            if (values != null) {
+                System.arraycopy(values, half, right.values, 0, right.size);
+            }
+            size = half;
+            return right;
+        }
+    }
+
+    private final boolean withValues;
+    private Block[] blocks = new Block[1];
+    private int blockCount;
+    private int size;
+
+    Postings(boolean withValues) {
+        this.withValues = withValues;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Adds id, or replaces its value if it is already here. */
+    void add(int id, int value) {
+        if (blockCount == 0) {
+            blocks[0] = new Block(2, withValues);
+            blockCount = 1;
+        }
+        int b = blockFor(id);
+        Block block = blocks[b];
+        int at = Arrays.binarySearch(block.ids, 0, block.size, id);
+        if (at >= 0) {
+            if (withValues) {
+                block.values[at] = value;
+            }
+            return;
+        }
+        at = -at - 1;
+        if (block.size == BLOCK) {
+            if (at == BLOCK && b == blockCount - 1) {
+                // Appending: leave the full block full.
+                block = new Block(2, withValues);
+                insertBlock(b + 1, block);
+                at = 0;
+            } else {
+                Block next = block.split();
+                insertBlock(b + 1, next);
+                if (at > block.size) {
+                    at -= block.size;
+                    block = next;
+                }
+            }
+        }
+        block.insert(at, id, value);
+        size++;
+    }
+
+    /** Removes id; false if it was not here. */
+    boolean remove(int id) {
+        if (blockCount == 0) {
+            return false;
+        }
+        int b = blockFor(id);
+        Block block = blocks[b];
+        int at = Arrays.binarySearch(block.ids, 0, block.size, id);
+        if (at < 0) {
+            return false;
+        }
+        block.delete(at);
+        size--;
+        if (block.size == 0 && blockCount > 1) {
+            System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+            blocks[--blockCount] = null;
+        }
+        return true;
+    }
+
+    /** The IDs, ascending. */
+    int[] toArray() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int b = 0; b < blockCount; b++) {
+            System.arraycopy(blocks[b].ids, 0, out, n, blocks[b].size);
+            n += blocks[b].size;
+        }
+        return out;
+    }
+
+    /** Every posting in ID order. */
+    void forEach(Visitor visitor) {
+        for (int b = 0; b < blockCount; b++) {
+            Block block = blocks[b];
+            for (int i = 0; i < block.size; i++) {
+                visitor.visit(block.ids[i], withValues ? block.values[i] : 0);
+            }
+        }
+    }
+
+    // The last block whose first ID is at most id, or the first block.
+    private int blockFor(int id) {
+        int lo = 0;
+        int hi = blockCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blocks[mid].size > 0 && blocks[mid].ids[0] <= id) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private void insertBlock(int at, Block block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+        }
+        System.arraycopy(blocks, at, blocks, at + 1, blockCount - at);
+        blocks[at] = block;
+        blockCount++;
+    }
+}
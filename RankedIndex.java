@@ -0,0 +1,456 @@
+import java.util.*;
+
+/* ---------------- RANKED INDEX ---------------- */
+// Word-level index over titles and authors for relevance-ranked search.
+// Each query word stands for the catalog words it could mean: itself, the
+// words it begins, and words within a small edit distance of it (typos).
+// Typo candidates come from a trigram index over the vocabulary, so only
+// plausible words reach the edit-distance check. Books are scored with
+// BM25, a prefix or typo match counting for less than an exact one, and
+// the best k are kept in a bounded heap.
+//
+// Guarded by the catalog lock like SearchIndex: add/remove under the write
+// lock, search under the read lock.
+class RankedIndex {
+    // BM25 term-frequency saturation and length normalization.
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final double EXACT = 1.0;
+    private static final double PREFIX = 0.8;
+    private static final double[] TYPO = {EXACT, 0.7, 0.5}; // by edit distance
+    private static final int MIN_PREFIX = 3;      // shorter words only match exactly or as typos
+    private static final int MAX_PREFIX_WORDS = 64;
+
+    /** A book ID and its relevance to the query. */
+    static final class Hit {
+        final int id;
+        final double score;
+
+        Hit(int id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /** A ranked result as handed out by Library. */
+    static final class Match {
+        final Book book;
+        final double score;
+
+        Match(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+    }
+
+    // A vocabulary word and its postings: per book, the word's occurrences
+    // there and that book's length in words, packed as (count << 16) | length.
+    private static final class Term {
+        final String word;
+        final Postings postings = new Postings(true);
+
+        Term(String word) {
+            this.word = word;
+        }
+
+        int size() {
+            return postings.size();
+        }
+
+        void add(int id, int count, int length) {
+            postings.add(id, Math.min(count, Short.MAX_VALUE) << 16 | Math.min(length, Short.MAX_VALUE));
+        }
+
+        void remove(int id) {
+            postings.remove(id);
+        }
+    }
+
+    private final TreeMap<String, Term> terms = new TreeMap<>();      // sorted, for prefix ranges
+    private final Map<String, List<Term>> termGrams = new HashMap<>(); // "$ab", "abc", "bc$" -> words
+    private int books;
+    private long totalWords;
+
+    public void add(Book b) {
+        List<String> words = wordsOf(b);
+        for (Map.Entry<String, Integer> e : counted(words).entrySet()) {
+            Term t = terms.get(e.getKey());
+            if (t == null) {
+                t = new Term(e.getKey());
+                terms.put(t.word, t);
+                for (String gram : gramsOf(t.word)) {
+                    termGrams.computeIfAbsent(gram, g -> new ArrayList<>()).add(t);
+                }
+            }
+            t.add(b.getId(), e.getValue(), words.size());
+        }
+        books++;
+        totalWords += words.size();
+    }
+
+    /** Call with the title and author b was added with. */
+    public void remove(Book b) {
+        List<String> words = wordsOf(b);
+        for (String word : counted(words).keySet()) {
+            Term t = terms.get(word);
+            if (t == null) {
+                continue;
+            }
+            t.remove(b.getId());
+            if (t.size() == 0) {
+                terms.remove(word);
+                for (String gram : gramsOf(word)) {
+                    List<Term> list = termGrams.get(gram);
+                    list.remove(t);
+                    if (list.isEmpty()) {
+                        termGrams.remove(gram);
+                    }
+                }
+            }
+        }
+        books--;
+        totalWords -= words.size();
+    }
+
+    /** The k best-scoring books for query, best first; equal scores by ID. */
+    public List<Hit> search(String query, int k) {
+        Set<String> queryWords = new LinkedHashSet<>(words(query));
+        if (queryWords.isEmpty() || books == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        double avgWords = (double) totalWords / books;
+        Scores total = null;
+        for (String q : queryWords) {
+            Map<Term, Double> expanded = expand(q);
+            int postings = 0;
+            for (Term t : expanded.keySet()) {
+                postings += t.size();
+            }
+            // A book scores once per query word, for the best word it has that q could mean.
+            Scores best = new Scores(postings);
+            for (Map.Entry<Term, Double> e : expanded.entrySet()) {
+                Term t = e.getKey();
+                double weight = e.getValue() * idf(t.size(), books);
+                t.postings.forEach((id, packed) ->
+                        best.max(id, weight * saturation(packed >>> 16, packed & 0xFFFF, avgWords)));
+            }
+            if (total == null) {
+                total = best;
+            } else {
+                total.addAll(best);
+            }
+        }
+        return total.top(k);
+    }
+
+    /*
+     * The same ranking by a full scan, for lazy mode where there is no
+     * index. Each query word is treated as one term whose document
+     * frequency is the number of books matching it in any form.
+     */
+    static List<Hit> scan(Iterable<Book> catalog, String query, int k) {
+        List<String> queryWords = new ArrayList<>(new LinkedHashSet<>(words(query)));
+        int n = queryWords.size();
+        if (n == 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        int books = 0;
+        long totalWords = 0;
+        int[] matchingBooks = new int[n];
+        List<int[]> matchIds = new ArrayList<>();   // id, length, then per query word its count
+        List<double[]> matchWeights = new ArrayList<>();
+        for (Book b : catalog) {
+            List<String> words = wordsOf(b);
+            books++;
+            totalWords += words.size();
+            int[] counts = null;
+            double[] weights = null;
+            for (int j = 0; j < n; j++) {
+                for (String word : words) {
+                    double w = weight(queryWords.get(j), word);
+                    if (w == 0) {
+                        continue;
+                    }
+                    if (counts == null) {
+                        counts = new int[n + 2];
+                        weights = new double[n];
+                    }
+                    if (w > weights[j]) {
+                        weights[j] = w;
+                        counts[j + 2] = 1;
+                    } else if (w == weights[j]) {
+                        counts[j + 2]++;
+                    }
+                }
+                if (counts != null && counts[j + 2] > 0) {
+                    matchingBooks[j]++;
+                }
+            }
+            if (counts != null) {
+                counts[0] = b.getId();
+                counts[1] = words.size();
+                matchIds.add(counts);
+                matchWeights.add(weights);
+            }
+        }
+        double avgWords = (double) totalWords / books;
+        Scores total = new Scores(matchIds.size());
+        for (int m = 0; m < matchIds.size(); m++) {
+            int[] counts = matchIds.get(m);
+            double[] weights = matchWeights.get(m);
+            double score = 0;
+            for (int j = 0; j < n; j++) {
+                if (counts[j + 2] > 0) {
+                    score += weights[j] * idf(matchingBooks[j], books)
+                            * saturation(counts[j + 2], counts[1], avgWords);
+                }
+            }
+            total.max(counts[0], score);
+        }
+        return total.top(k);
+    }
+
+    // Vocabulary words q could mean, with how much a match on each counts.
+    private Map<Term, Double> expand(String q) {
+        Map<Term, Double> matches = new HashMap<>();
+        Term exact = terms.get(q);
+        if (exact != null) {
+            matches.put(exact, EXACT);
+        }
+        if (q.length() >= MIN_PREFIX) {
+            int taken = 0;
+            for (Term t : terms.tailMap(q, false).values()) {
+                if (!t.word.startsWith(q) || taken++ == MAX_PREFIX_WORDS) {
+                    break;
+                }
+                matches.put(t, PREFIX);
+            }
+        }
+        int edits = maxEdits(q);
+        if (edits > 0) {
+            // Each edit changes at most four of q's trigrams, so a word
+            // within reach shares all but 4 * edits of them.
+            Set<String> grams = gramsOf(q);
+            Map<Term, int[]> shared = new HashMap<>();
+            for (String gram : grams) {
+                List<Term> list = termGrams.get(gram);
+                if (list == null) {
+                    continue;
+                }
+                for (Term t : list) {
+                    if (Math.abs(t.word.length() - q.length()) <= edits) {
+                        shared.computeIfAbsent(t, x -> new int[1])[0]++;
+                    }
+                }
+            }
+            int needed = Math.max(1, grams.size() - 4 * edits);
+            for (Map.Entry<Term, int[]> e : shared.entrySet()) {
+                if (e.getValue()[0] >= needed) {
+                    double w = weight(q, e.getKey().word);
+                    if (w > matches.getOrDefault(e.getKey(), 0.0)) {
+                        matches.put(e.getKey(), w);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    // How much word counts as a match for query word q: 1 exact, less for a prefix or typo, 0 none.
+    static double weight(String q, String word) {
+        if (word.equals(q)) {
+            return EXACT;
+        }
+        double w = q.length() >= MIN_PREFIX && word.startsWith(q) ? PREFIX : 0;
+        int edits = maxEdits(q);
+        if (edits > 0) {
+            int d = distance(q, word, edits);
+            if (d <= edits) {
+                w = Math.max(w, TYPO[d]);
+            }
+        }
+        return w;
+    }
+
+    // Typos tolerated: none in words of up to 3 letters, one up to 7, then two.
+    static int maxEdits(String q) {
+        return q.length() <= 3 ? 0 : q.length() <= 7 ? 1 : 2;
+    }
+
+    /*
+     * Optimal-string-alignment distance (insert, delete, substitute, swap
+     * adjacent letters), or max + 1 once it must exceed max.
+     */
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] before = new int[b.length() + 1];
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, before[j - 2] + 1);
+                }
+                cur[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] spare = before;
+            before = prev;
+            prev = cur;
+            cur = spare;
+        }
+        return Math.min(prev[b.length()], max + 1);
+    }
+
+    private static double idf(int matching, int books) {
+        return Math.log(1 + (books - matching + 0.5) / (matching + 0.5));
+    }
+
+    private static double saturation(int count, int length, double avgWords) {
+        return count * (K1 + 1) / (count + K1 * (1 - B + B * length / avgWords));
+    }
+
+    private static List<String> wordsOf(Book b) {
+        List<String> words = words(b.getTitle());
+        words.addAll(words(b.getAuthor()));
+        return words;
+    }
+
+    /** Lower-cased runs of letters and digits. */
+    static List<String> words(String text) {
+        String lower = text.toLowerCase();
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static Map<String, Integer> counted(List<String> words) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String w : words) {
+            counts.merge(w, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    // Trigrams of the word with '$' marking its ends, so short words have some.
+    private static Set<String> gramsOf(String word) {
+        String padded = "$" + word + "$";
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /* Book ID -> score, open addressing; no boxing while accumulating. */
+    private static final class Scores {
+        int[] keys;
+        double[] values;
+        boolean[] used;
+        int size;
+
+        Scores(int expected) {
+            int capacity = 64;
+            while (capacity * 3 / 4 <= expected) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            values = new double[capacity];
+            used = new boolean[capacity];
+        }
+
+        private int slot(int key) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int s = (h ^ (h >>> 16)) & mask;
+            while (used[s] && keys[s] != key) {
+                s = (s + 1) & mask;
+            }
+            if (!used[s]) {
+                used[s] = true;
+                keys[s] = key;
+                size++;
+            }
+            return s;
+        }
+
+        void max(int key, double value) {
+            int s = slot(key);
+            values[s] = Math.max(values[s], value);
+        }
+
+        void addAll(Scores other) {
+            for (int s = 0; s < other.keys.length; s++) {
+                if (other.used[s]) {
+                    int at = slot(other.keys[s]); // may rehash, so before touching values
+                    values[at] += other.values[s];
+                }
+            }
+        }
+
+        // Min-heap of the best k so far: the root is the one to drop next.
+        List<Hit> top(int k) {
+            Comparator<Hit> worstFirst = (x, y) -> x.score != y.score
+                    ? Double.compare(x.score, y.score) : Integer.compare(y.id, x.id);
+            PriorityQueue<Hit> heap = new PriorityQueue<>(Math.min(k, Math.max(size, 1)), worstFirst);
+            for (int s = 0; s < keys.length; s++) {
+                if (!used[s]) {
+                    continue;
+                }
+                Hit h = new Hit(keys[s], values[s]);
+                if (heap.size() < k) {
+                    heap.add(h);
+                } else if (worstFirst.compare(h, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(h);
+                }
+            }
+            Hit[] best = new Hit[heap.size()];
+            for (int i = best.length - 1; i >= 0; i--) {
+                best[i] = heap.poll();
+            }
+            return Arrays.asList(best);
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            double[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new double[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int s = 0; s < oldKeys.length; s++) {
+                if (oldUsed[s]) {
+                    int at = slot(oldKeys[s]);
+                    values[at] = oldValues[s];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.*;
+
+/* ---------------- SEARCH INDEX ---------------- */
+// Inverted index from every 1..3 character n-gram of a book's lower-cased
+// title and author to the IDs of the books containing it. Queries of up to
+// three characters are answered straight from one posting list; longer
+// queries take the shortest list among their trigrams and the caller
+// verifies each candidate.
+class SearchIndex {
+    static final int MAX_GRAM = 3;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    public void add(Book b) {
+        for (String gram : gramsOf(b)) {
+            postings.computeIfAbsent(gram, g -> new Postings(false)).add(b.getId(), 0);
+        }
+    }
+
+    public void remove(Book b) {
+        for (String gram : gramsOf(b)) {
+            Postings list = postings.get(gram);
+            if (list != null) {
+                list.remove(b.getId());
+                if (list.size() == 0) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+    }
+
+    /** Returns IDs of books that may contain keyword (already lower-cased), ascending. */
+    public int[] candidates(String keyword) {
+        if (keyword.length() <= MAX_GRAM) {
+            Postings list = postings.get(keyword);
+            return list == null ? new int[0] : list.toArray();
+        }
+
+        // The rarest trigram bounds the candidate set; the caller verifies the rest.
+        Postings rarest = null;
+        for (int i = 0; i + MAX_GRAM <= keyword.length(); i++) {
+            Postings list = postings.get(keyword.substring(i, i + MAX_GRAM));
+            if (list == null) {
+                return new int[0];
+            }
+            if (rarest == null || list.size() < rarest.size()) {
+                rarest = list;
+            }
+        }
+        return rarest.toArray();
+    }
+
+    private static Set<String> gramsOf(Book b) {
+        Set<String> grams = new HashSet<>();
+        addGrams(b.getTitle().toLowerCase(), grams);
+        addGrams(b.getAuthor().toLowerCase(), grams);
+        return grams;
+    }
+
+    private static void addGrams(String text, Set<String> grams) {
+        for (int i = 0; i < text.length(); i++) {
+            for (int n = 1; n <= MAX_GRAM && i + n <= text.length(); n++) {
+                grams.add(text.substring(i, i + n));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.*;
+
+/* ---------------- TIMER WHEEL ---------------- */
+// Hashed timing wheel with one slot per tick (here, per epoch day). A timer
+// lands in slot deadline % slots; advancing the clock visits only the slots
+// for the ticks that passed, firing the timers due and leaving those a full
+// turn or more away for a later round. Scheduling and cancelling are O(1),
+// and nothing ever walks every pending timer.
+class TimerWheel<T> {
+    static final class Timer<T> {
+        final T item;
+        final long deadline;
+        private final int slot;
+
+        private Timer(T item, long deadline, int slot) {
+            this.item = item;
+            this.deadline = deadline;
+            this.slot = slot;
+        }
+    }
+
+    private final List<Set<Timer<T>>> slots;
+    private final int mask;
+    private long current; // last tick processed
+    private int size;
+
+    /** slots is rounded up to a power of two; current is the tick the wheel starts at. */
+    TimerWheel(int slots, long current) {
+        int n = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+        this.slots = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            this.slots.add(new LinkedHashSet<>());
+        }
+        this.mask = n - 1;
+        this.current = current;
+    }
+
+    // A deadline already passed fires on the next advance.
+    public synchronized Timer<T> schedule(T item, long deadline) {
+        long at = Math.max(deadline, current + 1);
+        Timer<T> timer = new Timer<>(item, deadline, (int) (at & mask));
+        slots.get(timer.slot).add(timer);
+        size++;
+        return timer;
+    }
+
+    public synchronized void cancel(Timer<T> timer) {
+        if (timer != null && slots.get(timer.slot).remove(timer)) {
+            size--;
+        }
+    }
+
+    /** Moves the clock to tick and returns the items whose deadline is at or before it. */
+    public synchronized List<T> advanceTo(long tick) {
+        if (tick <= current) {
+            return Collections.emptyList();
+        }
+        List<T> fired = new ArrayList<>();
+        long from = Math.max(current + 1, tick - mask);
+        for (long t = from; t <= tick; t++) {
+            for (Iterator<Timer<T>> it = slots.get((int) (t & mask)).iterator(); it.hasNext(); ) {
+                Timer<T> timer = it.next();
+                if (timer.deadline <= tick) {
+                    it.remove();
+                    size--;
+                    fired.add(timer.item);
+                }
+            }
+        }
+        current = tick;
+        return fired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (Set<Timer<T>> slot : slots) {
+            slot.clear();
+        }
+        size = 0;
+    }
+}
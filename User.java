@@ -0,0 +1,37 @@
+import java.io.*;
+
+/* ---------------- USER CLASS ---------------- */
+class User implements Serializable {
+    // Pinned to the value of the original class so legacy .dat files still load.
+    private static final long serialVersionUID = 3676235864189374943L;
+
+    private String username;
+    private String password; // PBKDF2 credential, or plaintext from older files (see PasswordHash)
+    private String role; // "ADMIN" or "USER"
+
+    public User(String username, String password, String role) {
+        this.username = username;
+        this.password = password;
+        this.role = role;
+    }
+
+    public boolean login(String u, String p) {
+        return username.equals(u) && PasswordHash.verify(p, password);
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    void setPassword(String credential) {
+        this.password = credential;
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* ---------------- USER MANAGER ---------------- */
+class UserManager {
+    // Keyed by lower-cased username, so the duplicate check on registration
+    // is case-insensitive while login still matches the exact name.
+    private Map<String, User> users = new ConcurrentHashMap<>();
+    private final String USERS_FILE = "users.bin";
+    private final String LEGACY_USERS_FILE = "users.dat";
+    private static final int FILE_MAGIC = 0x55534552; // "USER"
+    private static final short FILE_VERSION = 1;
+    private final Journal journal = new Journal("users.journal");
+    private static final int COMPACT_EVERY = 200;
+    private final Compactor compactor = new Compactor(journal, COMPACT_EVERY, this::saveUsers);
+
+    // Recently verified logins, so repeated authentication of the same
+    // credentials (every request to the HTTP server logs in) skips PBKDF2.
+    // Entries hold a salted SHA-256 of the password (never the password) and
+    // die with the process, on expiry, or when the stored credential changes.
+    // Verifications of one username run one at a time, so a client that
+    // opens several connections at once pays for PBKDF2 once, not per request.
+    private static final long SESSION_TTL_MILLIS = 5 * 60 * 1000L;
+    private static final int MAX_SESSIONS = 1024;
+    private static final int LOCK_STRIPES = 64;
+    private final Object[] verifyLocks = new Object[LOCK_STRIPES];
+    private final byte[] sessionSalt = new byte[16];
+    private final Map<String, Session> sessions = Collections.synchronizedMap(
+            new LinkedHashMap<String, Session>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            });
+
+    private static final class Session {
+        final String credential;
+        final byte[] digest;
+        final long expiresAt;
+
+        Session(String credential, byte[] digest, long expiresAt) {
+            this.credential = credential;
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public UserManager() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            verifyLocks[i] = new Object();
+        }
+        new SecureRandom().nextBytes(sessionSalt);
+        loadUsers();
+        if (users.isEmpty()) {
+            putUser(new User("admin", PasswordHash.hash("admin123"), "ADMIN"));
+        }
+    }
+
+    private static String fold(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private void loadUsers() {
+        long snapshotSeq = 0;
+        File legacy = new File(LEGACY_USERS_FILE);
+        boolean migrate = !new File(USERS_FILE).exists() && legacy.exists();
+        BinaryFile.tempFor(new File(USERS_FILE)).delete(); // left by a crash mid-save
+        users = new ConcurrentHashMap<>();
+        if (migrate) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacy))) {
+                for (User u : (ArrayList<User>) ois.readObject()) {
+                    users.put(fold(u.getUsername()), u);
+                }
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(legacy, e);
+            }
+        } else if (new File(USERS_FILE).exists()) {
+            try (BinaryFile.Reader in = new BinaryFile.Reader(new File(USERS_FILE), FILE_MAGIC, FILE_VERSION)) {
+                snapshotSeq = in.getLong();
+                for (int n = in.getInt(); n > 0; n--) {
+                    User u = new User(in.getString(), in.getString(), in.getString());
+                    users.put(fold(u.getUsername()), u);
+                }
+            } catch (Exception e) {
+                throw BinaryFile.unreadable(new File(USERS_FILE), e);
+            }
+        }
+        journal.replay(snapshotSeq, in -> {
+            User u = new User(in.readUTF(), in.readUTF(), in.readUTF());
+            users.put(fold(u.getUsername()), u);
+        });
+        if (migrate) {
+            // Legacy files may hold plaintext passwords; none reach users.bin.
+            for (User u : users.values()) {
+                if (!PasswordHash.isHashed(u.getPassword())) {
+                    u.setPassword(PasswordHash.hash(u.getPassword()));
+                }
+            }
+            try {
+                saveUsers();
+            } catch (IOException e) {
+                throw BinaryFile.unwritable(new File(USERS_FILE), e);
+            }
+        } else {
+            compactor.compactIfDue();
+        }
+        // Once users.bin is on disk the legacy file is deleted, not kept as a
+        // backup, including when a crash came between the two.
+        if (legacy.exists() && !legacy.delete()) {
+            throw BinaryFile.unwritable(legacy, new IOException("cannot delete the migrated " + LEGACY_USERS_FILE));
+        }
+    }
+
+    private synchronized void saveUsers() throws IOException {
+        File file = new File(USERS_FILE);
+        File tmp = BinaryFile.tempFor(file);
+        try (BinaryFile.Writer out = new BinaryFile.Writer(tmp, FILE_MAGIC, FILE_VERSION)) {
+            out.putLong(journal.getLastSeq());
+            out.putInt(users.size());
+            for (User u : users.values()) {
+                out.putString(u.getUsername());
+                out.putString(u.getPassword());
+                out.putString(u.getRole());
+            }
+        }
+        BinaryFile.replace(tmp, file);
+        journal.reset();
+    }
+
+    Compactor compaction() {
+        return compactor;
+    }
+
+    /** Folds the journal into a fresh users.bin snapshot; UncheckedIOException if it cannot be written. */
+    public synchronized void checkpoint() {
+        try {
+            if (journal.getPending() > 0) {
+                compactor.saveNow();
+            }
+        } catch (IOException e) {
+            throw BinaryFile.unwritable(new File(USERS_FILE), e);
+        } finally {
+            journal.close();
+        }
+    }
+
+    // Adds or replaces a user and journals it.
+    private synchronized void putUser(User u) {
+        users.put(fold(u.getUsername()), u);
+        String name = u.getUsername();
+        String credential = u.getPassword();
+        String role = u.getRole();
+        journal.append(out -> {
+            out.writeUTF(name);
+            out.writeUTF(credential);
+            out.writeUTF(role);
+        });
+        compactor.compactIfDue();
+    }
+
+    /** The user with these credentials, or null. */
+    public User authenticate(String username, String password) {
+        User u = users.get(fold(username));
+        if (u == null || !u.getUsername().equals(username)) {
+            return null;
+        }
+        byte[] digest = sessionDigest(username, password);
+        if (verified(u, digest)) {
+            return u;
+        }
+        synchronized (verifyLocks[username.hashCode() & (LOCK_STRIPES - 1)]) {
+            if (verified(u, digest)) {
+                return u; // a concurrent request just checked the same credentials
+            }
+            if (!u.login(username, password)) {
+                return null;
+            }
+            if (PasswordHash.needsRehash(u.getPassword())) {
+                String upgraded = PasswordHash.hash(password);
+                synchronized (this) {
+                    u.setPassword(upgraded);
+                    putUser(u);
+                }
+            }
+            sessions.put(username, new Session(u.getPassword(), digest, System.currentTimeMillis() + SESSION_TTL_MILLIS));
+        }
+        return u;
+    }
+
+    private boolean verified(User u, byte[] digest) {
+        Session session = sessions.get(u.getUsername());
+        return session != null && session.credential.equals(u.getPassword())
+                && session.expiresAt > System.currentTimeMillis()
+                && MessageDigest.isEqual(session.digest, digest);
+    }
+
+    /** Registers a student account; false if the username is taken. */
+    public boolean registerNewUser(String username, String password) {
+        if (users.containsKey(fold(username))) {
+            return false;
+        }
+        String credential = PasswordHash.hash(password); // slow; kept outside the lock
+        synchronized (this) {
+            if (users.containsKey(fold(username))) {
+                return false;
+            }
+            putUser(new User(username, credential, "USER"));
+        }
+        return true;
+    }
+
+    private byte[] sessionDigest(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(sessionSalt);
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(password.getBytes(StandardCharsets.UTF_8));
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
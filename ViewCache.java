@@ -0,0 +1,138 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/* ---------------- VIEW CACHE ---------------- */
+// Bounded LRU cache of rendered read-only views (book details, a borrower's
+// loans), one entry per key holding a string per format. The library drops
+// a key whenever something shown in its view changes.
+//
+// Split into segments, each an access-ordered LinkedHashMap under its own
+// lock, so kiosks reading different keys rarely contend. Rendering happens
+// outside the lock; a render that raced with an invalidation of its
+// segment is returned but not stored, so a stale view is never cached.
+//
+// Public because JMX only introspects public MXBean interfaces.
+public final class ViewCache<K> implements Metrics.CacheMXBean {
+    static final int TEXT = 0; // console
+    static final int JSON = 1; // HTTP server
+    private static final int FORMATS = 2;
+    private static final int SEGMENTS = 16;
+
+    private static final class Segment<K> extends LinkedHashMap<K, String[]> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        long generation; // bumped by every invalidation
+        long evictions;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, String[]> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final Segment<K>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ViewCache(int capacity) {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    private Segment<K> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /** key's view in format, rendered on a miss. A null render is returned but not cached. */
+    String get(K key, int format, Supplier<String> render) {
+        Segment<K> s = segmentFor(key);
+        long generation;
+        synchronized (s) {
+            String[] views = s.get(key);
+            if (views != null && views[format] != null) {
+                hits.increment();
+                return views[format];
+            }
+            generation = s.generation;
+        }
+        misses.increment();
+        String view = render.get();
+        if (view != null) {
+            synchronized (s) {
+                if (s.generation == generation) {
+                    s.computeIfAbsent(key, k -> new String[FORMATS])[format] = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    /** Drops every format of key's view. */
+    void invalidate(K key) {
+        Segment<K> s = segmentFor(key);
+        synchronized (s) {
+            s.generation++;
+            s.remove(key);
+        }
+        invalidations.increment();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        long total = 0;
+        for (Segment<K> s : segments) {
+            synchronized (s) {
+                total += s.evictions;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int getSize() {
+        int total = 0;
+        for (Segment<K> s : segments) {
+            synchronized (s) {
+                total += s.size();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public double getHitRate() {
+        long hit = hits.sum();
+        long lookups = hit + misses.sum();
+        return lookups == 0 ? 0 : (double) hit / lookups;
+    }
+}
@@ -0,0 +1,75 @@
+import benchmarks.Catalog;
+
+import java.io.*;
+import java.util.*;
+
+/* ---------------- JMH CATALOG ---------------- */
+// The Library side of benchmarks.Catalog: the same synthetic catalogs and
+// random keys as LibraryBenchmark.
+public class LibraryCatalog implements Catalog {
+    private File dir;
+    private Library library;
+    private final int[] ids = new int[KEYS];
+    private final String[] keywords = new String[KEYS];
+    private final String[] borrowers = new String[KEYS];
+
+    @Override
+    public void open(int size) throws IOException {
+        dir = LibraryBenchmark.createTempDir();
+        LibraryBenchmark.writeCatalog(dir, size, new Random(42));
+        library = new Library(dir);
+        Random rnd = new Random(7);
+        for (int i = 0; i < KEYS; i++) {
+            ids[i] = 1 + rnd.nextInt(size);
+            keywords[i] = LibraryBenchmark.randomKeyword(rnd);
+            borrowers[i] = String.format("%03d", rnd.nextInt(1000));
+        }
+    }
+
+    @Override
+    public Object getBook(int key) {
+        return library.getBook(ids[key]);
+    }
+
+    @Override
+    public Object findBooks(int key) {
+        return library.findBooks(keywords[key]);
+    }
+
+    @Override
+    public Object rankBooks(int key) {
+        return library.rankBooks(keywords[key], 20);
+    }
+
+    @Override
+    public Object issueAndReturn(int key) {
+        return library.issueCopy(ids[key], "999").isOk() ? library.returnCopy(ids[key], "999") : null;
+    }
+
+    @Override
+    public Object loansOf(int key) {
+        return library.loansOf(borrowers[key]);
+    }
+
+    @Override
+    public Object load(boolean lazy) {
+        return new Library(dir, lazy);
+    }
+
+    @Override
+    public void change(int key) {
+        library.issueCopy(ids[key], "999");
+        library.returnCopy(ids[key], "999");
+    }
+
+    @Override
+    public void checkpoint() {
+        library.checkpoint();
+    }
+
+    @Override
+    public void close() {
+        library.checkpoint();
+        LibraryBenchmark.deleteDir(dir);
+    }
+}
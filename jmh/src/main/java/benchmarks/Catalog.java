@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.io.IOException;
+
+/**
+ * What the benchmarks call on a library. JMH needs benchmark classes in a
+ * named package, and a named package cannot see the application's classes
+ * in the default package, so a default-package class (LibraryCatalog)
+ * implements this and the benchmarks load it by name. Methods taking a key
+ * use the key-th of a fixed set of random book IDs, search terms or
+ * borrowers; results are returned so JMH keeps them live.
+ */
+public interface Catalog {
+    int KEYS = 4096; // a power of two, so callers can mask a counter
+
+    /** Writes a synthetic catalog of this many books to a temporary directory and opens it. */
+    void open(int size) throws IOException;
+
+    Object getBook(int key);
+
+    Object findBooks(int key);
+
+    Object rankBooks(int key);
+
+    Object issueAndReturn(int key);
+
+    Object loansOf(int key);
+
+    /** Loads the catalog from its directory into a new library. */
+    Object load(boolean lazy);
+
+    /** Journals one change, so the next checkpoint has something to write. */
+    void change(int key);
+
+    void checkpoint();
+
+    void close();
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Library hot paths under JMH: ID lookup, keyword and ranked search,
+ * issue/return, a borrower's loans, and save/load, at 1k, 100k and 1M books.
+ *
+ * <pre>
+ *   mvn -B package
+ *   java -jar jmh/target/benchmarks.jar [regexp] [-p size=100000]
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Library {
+        @Param({"1000", "100000", "1000000"})
+        int size;
+
+        Catalog catalog;
+
+        @Setup(Level.Trial)
+        public void open() throws ReflectiveOperationException, IOException {
+            catalog = (Catalog) Class.forName("LibraryCatalog").getConstructor().newInstance();
+            catalog.open(size);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            catalog.close();
+        }
+    }
+
+    /** Walks the catalog's keys, so successive calls touch different books. */
+    @State(Scope.Thread)
+    public static class Keys {
+        int next;
+
+        int next() {
+            return next++ & (Catalog.KEYS - 1);
+        }
+    }
+
+    /** Leaves a change in the journal before each checkpoint; the change is not timed. */
+    @State(Scope.Thread)
+    public static class Change {
+        @Setup(Level.Invocation)
+        public void change(Library library, Keys keys) {
+            library.catalog.change(keys.next());
+        }
+    }
+
+    @Benchmark
+    public Object getBook(Library library, Keys keys) {
+        return library.catalog.getBook(keys.next());
+    }
+
+    @Benchmark
+    public Object findBooks(Library library, Keys keys) {
+        return library.catalog.findBooks(keys.next());
+    }
+
+    @Benchmark
+    public Object rankBooks(Library library, Keys keys) {
+        return library.catalog.rankBooks(keys.next());
+    }
+
+    @Benchmark
+    public Object issueAndReturn(Library library, Keys keys) {
+        return library.catalog.issueAndReturn(keys.next());
+    }
+
+    @Benchmark
+    public Object loansOf(Library library, Keys keys) {
+        return library.catalog.loansOf(keys.next());
+    }
+
+    @Benchmark
+    public Object load(Library library) {
+        return library.catalog.load(false);
+    }
+
+    @Benchmark
+    public Object loadLazy(Library library) {
+        return library.catalog.load(true);
+    }
+
+    @Benchmark
+    public void checkpoint(Library library, Change change) {
+        library.catalog.checkpoint();
+    }
+}